@@ -0,0 +1,197 @@
+package engine;
+
+/**
+ * A fixed size list of suggestions, best score first. Words are held in preallocated character
+ * buffers so filling the list on every keystroke does not allocate.
+ */
+public class Candidates {
+
+    private static final int INITIAL_WORD_CAPACITY = 32;
+
+    private final char[][] words;
+    private final int[] lengths;
+    private final int[] scores;
+    private int count;
+
+    // Scratch buffer for searches that build words character by character
+    private char[] scratch = new char[INITIAL_WORD_CAPACITY];
+
+    public Candidates(int capacity) {
+        words = new char[capacity][];
+        lengths = new int[capacity];
+        scores = new int[capacity];
+        for (int i = 0; i < capacity; i++) {
+            words[i] = new char[INITIAL_WORD_CAPACITY];
+        }
+    }
+
+    public int capacity() {
+        return words.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    public boolean isFull() {
+        return count == words.length;
+    }
+
+    public void clear() {
+        count = 0;
+    }
+
+    public int getScore(int index) {
+        return scores[index];
+    }
+
+    public int getLength(int index) {
+        return lengths[index];
+    }
+
+    public char charAt(int index, int position) {
+        return words[index][position];
+    }
+
+    /**
+     * @return the buffer holding the word at the given index, only its first getLength(index)
+     * characters belong to the word and the buffer is reused once the list changes
+     */
+    public char[] getWord(int index) {
+        return words[index];
+    }
+
+    /**
+     * @return the lowest score a new word has to beat to get in, 0 while the list is not full
+     */
+    public int minScore() {
+        return isFull() ? scores[count - 1] : 0;
+    }
+
+    /**
+     * Insert a word if its score ranks among the best seen so far. A word already in the list only
+     * keeps its higher score.
+     * @return whether the word is in the list afterwards
+     */
+    public boolean offer(char[] word, int length, int score) {
+        final int existing = indexOf(word, length);
+        if (existing >= 0) {
+            if (scores[existing] >= score) {
+                return true;
+            }
+            removeAt(existing);
+        }
+        if (isFull() && score <= scores[count - 1]) {
+            return false;
+        }
+
+        int position = count < words.length ? count : count - 1;
+        // Recycle the buffer of the entry falling off the end
+        char[] buffer = words[position];
+        while (position > 0 && scores[position - 1] < score) {
+            words[position] = words[position - 1];
+            lengths[position] = lengths[position - 1];
+            scores[position] = scores[position - 1];
+            position--;
+        }
+        if (buffer.length < length) {
+            buffer = new char[Math.max(length, buffer.length * 2)];
+        }
+        System.arraycopy(word, 0, buffer, 0, length);
+        words[position] = buffer;
+        lengths[position] = length;
+        scores[position] = score;
+        if (count < words.length) {
+            count++;
+        }
+        return true;
+    }
+
+    /**
+     * @return whether both lists hold the same words in the same order, scores are ignored
+     */
+    public boolean sameWords(Candidates other) {
+        if (other.count != count) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!matches(i, other.words[i], other.lengths[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether the word at the given index equals the given text
+     */
+    public boolean matches(int index, CharSequence text) {
+        if (text == null || text.length() != lengths[index]) {
+            return false;
+        }
+        final char[] word = words[index];
+        for (int i = 0; i < lengths[index]; i++) {
+            if (word[i] != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void copyFrom(Candidates other) {
+        clear();
+        for (int i = 0; i < other.count && i < words.length; i++) {
+            if (words[i].length < other.lengths[i]) {
+                words[i] = new char[other.lengths[i]];
+            }
+            System.arraycopy(other.words[i], 0, words[i], 0, other.lengths[i]);
+            lengths[i] = other.lengths[i];
+            scores[i] = other.scores[i];
+            count++;
+        }
+    }
+
+    public String toString(int index) {
+        return new String(words[index], 0, lengths[index]);
+    }
+
+    char[] scratch(int length) {
+        if (scratch.length < length) {
+            scratch = new char[length];
+        }
+        return scratch;
+    }
+
+    private int indexOf(char[] word, int length) {
+        for (int i = 0; i < count; i++) {
+            if (matches(i, word, length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matches(int index, char[] word, int length) {
+        if (lengths[index] != length) {
+            return false;
+        }
+        final char[] own = words[index];
+        for (int i = 0; i < length; i++) {
+            if (own[i] != word[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void removeAt(int index) {
+        final char[] buffer = words[index];
+        for (int i = index; i < count - 1; i++) {
+            words[i] = words[i + 1];
+            lengths[i] = lengths[i + 1];
+            scores[i] = scores[i + 1];
+        }
+        count--;
+        words[count] = buffer;
+    }
+}
@@ -0,0 +1,54 @@
+package engine;
+
+/**
+ * Receives the edits produced by {@link InputEngine}. The keyboard service forwards them to the
+ * current InputConnection and keyboard view, other front ends (tests, benchmarks, desktop) can
+ * record or apply them however they like.
+ */
+public interface EditSink {
+
+    void beginBatchEdit();
+
+    void endBatchEdit();
+
+    /**
+     * Replace the current composing region with the given text, cursor placed after it.
+     */
+    void setComposingText(CharSequence text);
+
+    /**
+     * Commit the given text in place of the composing region.
+     * @param newCursorPosition cursor position as defined by InputConnection.commitText
+     */
+    void commitText(CharSequence text, int newCursorPosition);
+
+    /**
+     * Keep the composing region as it is and stop composing.
+     */
+    void finishComposingText();
+
+    /**
+     * Send a raw delete key press, letting the editor remove the character before the cursor.
+     */
+    void sendDelete();
+
+    /**
+     * Send a raw enter key press.
+     */
+    void sendEnter();
+
+    /**
+     * Send a raw key press for the given digit (0 - 9).
+     */
+    void sendDigit(int digit);
+
+    /**
+     * Show the alphabetic keyboard shifted or not.
+     */
+    void setShifted(boolean shifted);
+
+    /**
+     * @return the editor's caps mode at the cursor, 0 when no automatic capitalisation applies
+     */
+    int getCursorCapsMode();
+}
@@ -0,0 +1,293 @@
+package engine;
+
+/**
+ * The keyboard's input state machine: shift and caps lock, the composing word, word separators and
+ * backspace. Key events go in through {@link #onKey(int, boolean)} and the other event methods,
+ * the resulting edits come out through an {@link EditSink}.
+ *
+ * This class has no Android dependencies so it can be driven from a plain JVM.
+ * It is not thread safe, all events are expected on one thread.
+ */
+public class InputEngine {
+
+    // Same values as android.inputmethodservice.Keyboard
+    public static final int KEYCODE_SHIFT = -1;
+    public static final int KEYCODE_DELETE = -5;
+
+    // Two presses of shift within this many milliseconds toggle caps lock
+    static final long CAPS_LOCK_INTERVAL = 800;
+
+    private final EditSink sink;
+    private final String wordSeparators;
+
+    // Cap on the composing region: past composingLimit characters the stable prefix is committed
+    // and only the last composingKeep characters stay in composing as the live suffix.
+    private final int composingLimit;
+    private final int composingKeep;
+
+    private final StringBuilder composing = new StringBuilder();
+    // Reused for single characters committed straight to the editor
+    private final StringBuilder single = new StringBuilder(2);
+
+    private boolean predictionOn;
+    private boolean lettersActive;
+    private boolean shifted;
+    private boolean capsLock;
+    private long lastShiftTime;
+
+    public InputEngine(EditSink sink, String wordSeparators, int composingLimit, int composingKeep) {
+        if (composingLimit < 1 || composingKeep < 1) {
+            throw new IllegalArgumentException("Composing lengths must be positive");
+        }
+        this.sink = sink;
+        this.wordSeparators = wordSeparators;
+        this.composingLimit = composingLimit;
+        this.composingKeep = Math.min(composingKeep, composingLimit);
+    }
+
+    public void setPredictionOn(boolean predictionOn) {
+        this.predictionOn = predictionOn;
+    }
+
+    public boolean isPredictionOn() {
+        return predictionOn;
+    }
+
+    /**
+     * Tell the engine whether the alphabetic keyboard is the one currently shown.
+     * Shift only applies to the alphabetic keyboard.
+     */
+    public void setLettersActive(boolean lettersActive) {
+        this.lettersActive = lettersActive;
+    }
+
+    public boolean isShifted() {
+        return shifted;
+    }
+
+    public boolean isCapsLock() {
+        return capsLock;
+    }
+
+    /**
+     * @return the live composing text, only valid until the next event
+     */
+    public CharSequence getComposing() {
+        return composing;
+    }
+
+    public boolean isComposing() {
+        return composing.length() > 0;
+    }
+
+    /**
+     * Reset the composing state for a new input field.
+     */
+    public void onStartInput() {
+        composing.setLength(0);
+    }
+
+    /**
+     * Forget the composing text without touching the editor, it has gone away.
+     */
+    public void onFinishInput() {
+        composing.setLength(0);
+    }
+
+    public void onKey(int primaryCode, boolean inputViewShown) {
+        onKey(primaryCode, inputViewShown, System.currentTimeMillis());
+    }
+
+    /**
+     * Handle a key from the soft keyboard or a translated hard key.
+     * @param inputViewShown whether the soft keyboard is visible, shift is ignored otherwise
+     * @param eventTime the time of the key press in milliseconds, used to detect caps lock
+     */
+    public void onKey(int primaryCode, boolean inputViewShown, long eventTime) {
+        if (isWordSeparator(primaryCode)) {
+            // Handle separator
+            if (composing.length() > 0) {
+                commitTyped();
+            }
+            sendKey(primaryCode);
+            updateShiftState();
+        }
+        else if (primaryCode == KEYCODE_DELETE) {
+            onBackspace();
+        }
+        else if (primaryCode == KEYCODE_SHIFT) {
+            onShift(eventTime);
+        }
+        else {
+            onCharacter(primaryCode, inputViewShown);
+        }
+    }
+
+    /**
+     * Commit the composing text followed by the given text as one batch edit.
+     * @param newCursorPosition as defined by InputConnection.commitText, 1 leaves the cursor after the text
+     */
+    public void onText(CharSequence text, int newCursorPosition) {
+        sink.beginBatchEdit();
+        if (composing.length() > 0) {
+            commitTyped();
+        }
+        sink.commitText(text, newCursorPosition);
+        sink.endBatchEdit();
+        updateShiftState();
+    }
+
+    public void onBackspace() {
+        final int length = composing.length();
+        if (length > 1) {
+            composing.delete(length - 1, length);
+            updateComposing();
+        }
+        else if (length > 0) {
+            composing.setLength(0);
+            sink.commitText("", 0);
+        }
+        else {
+            sink.sendDelete();
+        }
+        updateShiftState();
+    }
+
+    public void onShift(long eventTime) {
+        if (lettersActive) {
+            checkToggleCapsLock(eventTime);
+            setShifted(capsLock || !shifted);
+        }
+    }
+
+    /**
+     * The editor reported a cursor movement. If it moved away from the composing text, stop composing.
+     */
+    public void onSelectionChanged(int newSelStart, int newSelEnd, int candidatesEnd) {
+        if (composing.length() > 0 && (newSelStart != candidatesEnd || newSelEnd != candidatesEnd)) {
+            composing.setLength(0);
+            sink.finishComposingText();
+        }
+    }
+
+    /**
+     * @return the last composing character, or 0 when nothing is being composed
+     */
+    public char lastComposingChar() {
+        final int length = composing.length();
+        return length > 0 ? composing.charAt(length - 1) : 0;
+    }
+
+    /**
+     * Drop the last composing character without updating the editor, used when a dead key
+     * combines it with the next key press.
+     */
+    public void dropLastComposingChar() {
+        final int length = composing.length();
+        if (length > 0) {
+            composing.setLength(length - 1);
+        }
+    }
+
+    /**
+     * Commit the picked suggestion in place of the composing word.
+     */
+    public void pickSuggestion(CharSequence word) {
+        composing.setLength(0);
+        sink.commitText(word, 1);
+        updateShiftState();
+    }
+
+    /**
+     * Commit any text being composed in to the editor.
+     */
+    public void commitTyped() {
+        if (composing.length() > 0) {
+            sink.commitText(composing, 1);
+            composing.setLength(0);
+        }
+    }
+
+    /**
+     * Update the shift state of the alphabetic keyboard from the editor's caps mode.
+     */
+    public void updateShiftState() {
+        if (lettersActive) {
+            setShifted(capsLock || sink.getCursorCapsMode() != 0);
+        }
+    }
+
+    public boolean isWordSeparator(int code) {
+        return code >= 0 && code <= Character.MAX_VALUE && wordSeparators.indexOf(code) >= 0;
+    }
+
+    private void onCharacter(int primaryCode, boolean inputViewShown) {
+        if (inputViewShown && lettersActive && shifted) {
+            primaryCode = Character.toUpperCase(primaryCode);
+        }
+        if (Character.isLetter(primaryCode) && predictionOn) {
+            composing.append((char) primaryCode);
+            updateComposing();
+            updateShiftState();
+        }
+        else {
+            commitSingle(primaryCode);
+        }
+    }
+
+    // Send the composing text to the editor. Once the word grows past the composing limit the
+    // stable prefix is committed, so each keystroke only resends the short live suffix.
+    private void updateComposing() {
+        final int length = composing.length();
+        if (length <= composingLimit) {
+            sink.setComposingText(composing);
+            return;
+        }
+
+        int stable = length - composingKeep;
+        // Never split a surrogate pair between the committed prefix and the composing suffix.
+        if (Character.isHighSurrogate(composing.charAt(stable - 1))) {
+            stable--;
+        }
+
+        sink.beginBatchEdit();
+        sink.commitText(composing.subSequence(0, stable), 1);
+        composing.delete(0, stable);
+        sink.setComposingText(composing);
+        sink.endBatchEdit();
+    }
+
+    // Send a character to the editor, as a raw key event where the editor expects one
+    private void sendKey(int code) {
+        if (code == '\n') {
+            sink.sendEnter();
+        }
+        else if (code >= '0' && code <= '9') {
+            sink.sendDigit(code - '0');
+        }
+        else {
+            commitSingle(code);
+        }
+    }
+
+    private void commitSingle(int code) {
+        single.setLength(0);
+        single.append((char) code);
+        sink.commitText(single, 1);
+    }
+
+    private void setShifted(boolean shifted) {
+        this.shifted = shifted;
+        sink.setShifted(shifted);
+    }
+
+    private void checkToggleCapsLock(long now) {
+        if (lastShiftTime + CAPS_LOCK_INTERVAL > now) {
+            capsLock = !capsLock;
+            lastShiftTime = 0;
+        }
+        else {
+            lastShiftTime = now;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package engine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Read only view over a binary lexicon produced by {@code LexiconCompiler}: a packed trie of words
+ * with their frequencies. Opening a lexicon only checks its header, nodes are read straight from the
+ * buffer so a memory mapped file is paged in as lookups touch it.
+ *
+ * Layout, all values big endian:
+ * <pre>
+ * header  int magic, int version, int wordCount, int nodeCount,
+ *         int bodyLength, int bodyCrc32, int rootOffset, int maxWordLength
+ * node    u16 childCount, u8 frequency (0 when no word ends here), u8 highest frequency below,
+ *         childCount x (u16 character, int child offset), sorted by character
+ * </pre>
+ * Node offsets are relative to the start of the body, which directly follows the header.
+ */
+public class Lexicon {
+
+    static final int MAGIC = 0x534B4C58; // "SKLX"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+
+    static final int NODE_HEADER_SIZE = 4;
+    static final int CHILD_ENTRY_SIZE = 6;
+    static final int MAX_FREQUENCY = 255;
+
+    private final ByteBuffer buffer;
+    private final int wordCount;
+    private final int nodeCount;
+    private final int bodyLength;
+    private final int bodyCrc;
+    private final int rootOffset;
+    private final int maxWordLength;
+
+    private Lexicon(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE) {
+            throw new IOException("Lexicon too short for its header");
+        }
+        this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+
+        if (this.buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a lexicon file");
+        }
+        final int version = this.buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException("Unsupported lexicon version " + version);
+        }
+        wordCount = this.buffer.getInt(8);
+        nodeCount = this.buffer.getInt(12);
+        bodyLength = this.buffer.getInt(16);
+        bodyCrc = this.buffer.getInt(20);
+        rootOffset = this.buffer.getInt(24);
+        maxWordLength = this.buffer.getInt(28);
+
+        if (bodyLength < NODE_HEADER_SIZE || HEADER_SIZE + (long) bodyLength > this.buffer.capacity()
+                || rootOffset < 0 || rootOffset > bodyLength - NODE_HEADER_SIZE) {
+            throw new IOException("Corrupt lexicon header");
+        }
+    }
+
+    /**
+     * Wrap a buffer holding a whole lexicon file, starting at its current position.
+     */
+    public static Lexicon wrap(ByteBuffer buffer) throws IOException {
+        return new Lexicon(buffer);
+    }
+
+    /**
+     * Memory map a lexicon stored in a region of the given file. The mapping stays valid after the
+     * channel is closed.
+     */
+    public static Lexicon map(FileChannel channel, long offset, long length) throws IOException {
+        return new Lexicon(channel.map(FileChannel.MapMode.READ_ONLY, offset, length));
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    public int getMaxWordLength() {
+        return maxWordLength;
+    }
+
+    /**
+     * Check the body against the checksum in the header. This reads the whole file, so it is meant for
+     * build time verification rather than for the keyboard's startup path.
+     */
+    public boolean verifyChecksum() {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer body = buffer.duplicate();
+        body.position(HEADER_SIZE);
+        body.limit(HEADER_SIZE + bodyLength);
+        final byte[] chunk = new byte[8192];
+        while (body.hasRemaining()) {
+            final int count = Math.min(chunk.length, body.remaining());
+            body.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+        }
+        return (int) crc.getValue() == bodyCrc;
+    }
+
+    /**
+     * @return the frequency of the given word (1 - 255), 0 if it is not in the lexicon
+     */
+    public int getFrequency(CharSequence word) {
+        final int node = findNode(word, 0, word.length());
+        return node < 0 ? 0 : frequency(node);
+    }
+
+    public boolean contains(CharSequence word) {
+        return getFrequency(word) > 0;
+    }
+
+    /**
+     * Walk the trie along the given characters.
+     * @return the offset of the node reached, -1 when no word starts with them
+     */
+    public int findNode(CharSequence text, int start, int end) {
+        return findNodeFrom(rootOffset, text, start, end);
+    }
+
+    /**
+     * Depth first walk below the given node offering every word to the list with its frequency times
+     * the given weight, skipping subtrees that cannot beat the current list.
+     * @param word buffer holding the characters leading to the node, at least maxWordLength long
+     */
+    void collect(int node, char[] word, int length, int weight, Candidates out) {
+        if (out.isFull() && maxFrequency(node) * weight <= out.minScore()) {
+            return;
+        }
+        final int frequency = frequency(node);
+        if (frequency > 0) {
+            out.offer(word, length, frequency * weight);
+        }
+        final int count = childCount(node);
+        for (int i = 0; i < count; i++) {
+            word[length] = childChar(node, i);
+            collect(childOffset(node, i), word, length + 1, weight, out);
+        }
+    }
+
+    private int findNodeFrom(int node, CharSequence text, int start, int end) {
+        for (int i = start; i < end && node >= 0; i++) {
+            node = child(node, text.charAt(i));
+        }
+        return node;
+    }
+
+    int root() {
+        return rootOffset;
+    }
+
+    // Offset of the child of the given node reached through the given character, -1 if there is none
+    int child(int node, char c) {
+        int low = 0;
+        int high = childCount(node) - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final char midChar = childChar(node, mid);
+            if (midChar < c) {
+                low = mid + 1;
+            }
+            else if (midChar > c) {
+                high = mid - 1;
+            }
+            else {
+                return childOffset(node, mid);
+            }
+        }
+        return -1;
+    }
+
+    int childCount(int node) {
+        return buffer.getChar(HEADER_SIZE + node);
+    }
+
+    int frequency(int node) {
+        return buffer.get(HEADER_SIZE + node + 2) & 0xFF;
+    }
+
+    int maxFrequency(int node) {
+        return buffer.get(HEADER_SIZE + node + 3) & 0xFF;
+    }
+
+    char childChar(int node, int index) {
+        return buffer.getChar(HEADER_SIZE + node + NODE_HEADER_SIZE + index * CHILD_ENTRY_SIZE);
+    }
+
+    int childOffset(int node, int index) {
+        return buffer.getInt(HEADER_SIZE + node + NODE_HEADER_SIZE + index * CHILD_ENTRY_SIZE + 2);
+    }
+}
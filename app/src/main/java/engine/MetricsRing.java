@@ -0,0 +1,116 @@
+package engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed size ring of performance samples kept in a memory mapped file, so they survive the process
+ * being killed and can be pulled from the device and decoded offline by {@code MetricsExport}.
+ *
+ * Recording is lock free and does not allocate: a writer claims a slot with one atomic increment and
+ * fills it with absolute puts. The slot's sequence number is cleared first and written last, so a
+ * sample cut short by the process dying reads as an empty slot.
+ *
+ * Layout, all values big endian:
+ * <pre>
+ * header  int magic, int version, int recordSize, int capacity, long createdMillis, long reserved
+ * record  long sequence + 1 (0 when empty), long timestampMillis, long value, int type, int tag
+ * </pre>
+ */
+public class MetricsRing {
+
+    // Sample types
+    public static final int KEY_LATENCY = 1;      // nanoseconds spent handling one key, tagged with a KEY constant
+    public static final int STARTUP_SPAN = 2;     // nanoseconds spent in a startup step, tagged with a SPAN constant
+    public static final int LAYOUT_REBUILD = 3;   // nanoseconds spent rebuilding layouts in onInitializeInterface
+    public static final int IPC_CALLS = 4;        // InputConnection calls made during one input session
+
+    // Tags of STARTUP_SPAN samples
+    public static final int SPAN_CREATE = 1;
+    public static final int SPAN_CREATE_INPUT_VIEW = 2;
+    public static final int SPAN_START_INPUT_VIEW = 3;
+
+    // Tags of KEY_LATENCY samples: the kind of key, never the key itself, so the ring holds no typed text
+    public static final int KEY_LETTER = 1;
+    public static final int KEY_SEPARATOR = 2;
+    public static final int KEY_DELETE = 3;
+    public static final int KEY_OTHER = 4;
+
+    static final int MAGIC = 0x534B4D52; // "SKMR"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    static final int RECORD_SIZE = 32;
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final AtomicLong nextSequence;
+
+    private MetricsRing(MappedByteBuffer buffer, int capacity, long nextSequence) {
+        this.buffer = buffer;
+        this.capacity = capacity;
+        this.nextSequence = new AtomicLong(nextSequence);
+    }
+
+    /**
+     * Open the ring stored in the given file, creating it or starting it over when it does not match
+     * the requested capacity or format.
+     */
+    public static MetricsRing open(File file, int capacity) throws IOException {
+        final long length = HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            final boolean fresh = raf.length() != length;
+            raf.setLength(length);
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            buffer.order(ByteOrder.BIG_ENDIAN);
+
+            if (fresh || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                    || buffer.getInt(8) != RECORD_SIZE || buffer.getInt(12) != capacity) {
+                for (int i = 0; i < capacity; i++) {
+                    buffer.putLong(HEADER_SIZE + i * RECORD_SIZE, 0);
+                }
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, RECORD_SIZE);
+                buffer.putInt(12, capacity);
+                buffer.putLong(16, System.currentTimeMillis());
+                buffer.putLong(24, 0);
+                return new MetricsRing(buffer, capacity, 0);
+            }
+
+            // Carry on after the newest sample of the previous process
+            long next = 0;
+            for (int i = 0; i < capacity; i++) {
+                next = Math.max(next, buffer.getLong(HEADER_SIZE + i * RECORD_SIZE));
+            }
+            return new MetricsRing(buffer, capacity, next);
+        }
+        finally {
+            // The mapping stays valid once the file is closed
+            raf.close();
+        }
+    }
+
+    public void record(int type, long value) {
+        record(type, 0, value);
+    }
+
+    /**
+     * Record one sample, safe to call from any thread.
+     */
+    public void record(int type, int tag, long value) {
+        final long sequence = nextSequence.getAndIncrement();
+        final int base = HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+        buffer.putLong(base, 0);
+        buffer.putLong(base + 8, System.currentTimeMillis());
+        buffer.putLong(base + 16, value);
+        buffer.putInt(base + 24, type);
+        buffer.putInt(base + 28, tag);
+        buffer.putLong(base, sequence + 1);
+    }
+}
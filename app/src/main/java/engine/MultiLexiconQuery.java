@@ -0,0 +1,101 @@
+package engine;
+
+/**
+ * Suggests completions from several lexicons at once, for example the active subtype's language and
+ * a secondary one. The prefix is walked once, stepping every lexicon along each character together,
+ * then the subtree below the prefix in each lexicon is merged straight into one bounded top-k list:
+ * a word scores its frequency times the weight of its lexicon, and a word found in several lexicons
+ * keeps its best score. The list is shared, so once the first lexicon has filled it the subtrees of
+ * the following ones that cannot beat it are skipped, which makes a query cheaper than asking each
+ * lexicon on its own.
+ *
+ * All traversal state is preallocated when the lexicons are set, a query does not allocate.
+ * Not thread safe.
+ */
+public class MultiLexiconQuery {
+
+    private Lexicon[] lexicons = new Lexicon[0];
+    private int[] weights = new int[0];
+
+    // Nodes reached by the prefix in each lexicon, two per lexicon: the prefix as typed and with its
+    // first letter in lower case. -1 when no word there starts with it.
+    private int[] nodes = new int[0];
+    private char[] word = new char[0];
+
+    /**
+     * Set the lexicons to query, the first one normally being the active language.
+     * @param weights per lexicon multiplier applied to word frequencies, for example 100 and 60
+     */
+    public void setLexicons(Lexicon[] lexicons, int[] weights) {
+        if (lexicons.length != weights.length) {
+            throw new IllegalArgumentException("One weight per lexicon expected");
+        }
+        int maxWordLength = 0;
+        for (Lexicon lexicon : lexicons) {
+            maxWordLength = Math.max(maxWordLength, lexicon.getMaxWordLength());
+        }
+        this.lexicons = lexicons.clone();
+        this.weights = weights.clone();
+        nodes = new int[lexicons.length * 2];
+        word = new char[maxWordLength];
+    }
+
+    public void clear() {
+        setLexicons(new Lexicon[0], new int[0]);
+    }
+
+    public boolean isEmpty() {
+        return lexicons.length == 0;
+    }
+
+    /**
+     * Fill the given list with the best scoring words starting with the given prefix across all
+     * lexicons. A capitalised prefix also matches lower case words, both are merged into the list and
+     * suggestions keep the prefix as typed.
+     */
+    public void getCompletions(CharSequence prefix, Candidates out) {
+        out.clear();
+        final int length = prefix.length();
+        if (length == 0 || length > word.length) {
+            return;
+        }
+
+        // Shared prefix walk: each character is read once and followed in every branch still matching,
+        // the branch of lexicon l being at nodes[2 * l] as typed and at nodes[2 * l + 1] in lower case
+        final Lexicon[] lexicons = this.lexicons;
+        final int[] nodes = this.nodes;
+        final char first = prefix.charAt(0);
+        final char lowerFirst = Character.toLowerCase(first);
+        int matching = 0;
+        for (int l = 0; l < lexicons.length; l++) {
+            final int root = lexicons[l].root();
+            nodes[2 * l] = lexicons[l].child(root, first);
+            nodes[2 * l + 1] = lowerFirst != first ? lexicons[l].child(root, lowerFirst) : -1;
+            if (nodes[2 * l] >= 0) {
+                matching++;
+            }
+            if (nodes[2 * l + 1] >= 0) {
+                matching++;
+            }
+        }
+        word[0] = first;
+        for (int i = 1; i < length && matching > 0; i++) {
+            final char c = prefix.charAt(i);
+            word[i] = c;
+            for (int n = 0; n < nodes.length; n++) {
+                if (nodes[n] >= 0) {
+                    nodes[n] = lexicons[n / 2].child(nodes[n], c);
+                    if (nodes[n] < 0) {
+                        matching--;
+                    }
+                }
+            }
+        }
+
+        for (int n = 0; n < nodes.length && matching > 0; n++) {
+            if (nodes[n] >= 0) {
+                lexicons[n / 2].collect(nodes[n], word, length, weights[n / 2], out);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package engine;
+
+/**
+ * Finds the words of a lexicon within a small edit distance of a misspelt word: insertions,
+ * deletions, substitutions and swaps of two adjacent characters each cost one. The trie is walked
+ * depth first with one row of the edit distance table per depth, so words sharing a prefix share its
+ * rows, and a subtree is abandoned as soon as every entry of its row is over the limit or it cannot
+ * beat the corrections already found. Case is ignored, a capitalised word gets capitalised corrections.
+ *
+ * Lexicons can be read by several threads at once, a corrector cannot: use one per thread.
+ * Its tables are kept between calls, a lookup does not allocate.
+ */
+public class SpellingCorrector {
+
+    // Longer words are neither checked nor corrected
+    public static final int MAX_WORD_LENGTH = 48;
+
+    private final int maxDistance;
+
+    // Per query state
+    private Lexicon lexicon;
+    private Candidates out;
+    private final char[] typed = new char[MAX_WORD_LENGTH];
+    private int typedLength;
+    private boolean capitalised;
+    private int maxDepth;
+    private int[][] rows = new int[0][];
+    // Lower case characters along the walked path, and the same as offered
+    private char[] path = new char[0];
+    private char[] word;
+
+    /**
+     * @param maxDistance most edits between a word and its corrections, for example 2
+     */
+    public SpellingCorrector(int maxDistance) {
+        if (maxDistance < 1) {
+            throw new IllegalArgumentException("Corrections need at least one edit");
+        }
+        this.maxDistance = maxDistance;
+    }
+
+    /**
+     * @return true if the word is in the lexicon as written or with its first letter in lower case,
+     *      or when it is too long to be checked
+     */
+    public boolean isKnown(Lexicon lexicon, CharSequence word) {
+        final int length = word.length();
+        if (length == 0 || length > MAX_WORD_LENGTH) {
+            return true;
+        }
+        if (lexicon.contains(word)) {
+            return true;
+        }
+        final char first = word.charAt(0);
+        if (!Character.isUpperCase(first)) {
+            return false;
+        }
+        int node = lexicon.child(lexicon.root(), Character.toLowerCase(first));
+        for (int i = 1; i < length && node >= 0; i++) {
+            node = lexicon.child(node, word.charAt(i));
+        }
+        return node >= 0 && lexicon.frequency(node) > 0;
+    }
+
+    /**
+     * Fill the given list with the closest, then most frequent, words of the lexicon.
+     */
+    public void getCorrections(Lexicon lexicon, CharSequence misspelt, Candidates out) {
+        out.clear();
+        final int length = misspelt.length();
+        if (length == 0 || length > MAX_WORD_LENGTH) {
+            return;
+        }
+        for (int i = 0; i < length; i++) {
+            typed[i] = Character.toLowerCase(misspelt.charAt(i));
+        }
+        this.lexicon = lexicon;
+        this.out = out;
+        typedLength = length;
+        capitalised = Character.isUpperCase(misspelt.charAt(0));
+        maxDepth = Math.min(length + maxDistance, lexicon.getMaxWordLength());
+
+        if (rows.length < maxDepth + 1) {
+            rows = new int[maxDepth + 1][MAX_WORD_LENGTH + 1];
+            path = new char[maxDepth];
+        }
+        word = out.scratch(maxDepth);
+        for (int j = 0; j <= length; j++) {
+            rows[0][j] = j;
+        }
+        walk(lexicon.root(), 0);
+
+        this.lexicon = null;
+        this.out = null;
+    }
+
+    // Visit the children of a node whose path is depth characters long and has its row filled
+    private void walk(int node, int depth) {
+        final int n = typedLength;
+        final int[] previous = rows[depth];
+        final int[] current = rows[depth + 1];
+        final int count = lexicon.childCount(node);
+        for (int i = 0; i < count; i++) {
+            final char original = lexicon.childChar(node, i);
+            final char c = Character.toLowerCase(original);
+            current[0] = depth + 1;
+            int rowMin = current[0];
+            for (int j = 1; j <= n; j++) {
+                int distance = Math.min(previous[j] + 1, current[j - 1] + 1);
+                distance = Math.min(distance, previous[j - 1] + (typed[j - 1] == c ? 0 : 1));
+                if (depth > 0 && j > 1 && typed[j - 1] == path[depth - 1] && typed[j - 2] == c) {
+                    distance = Math.min(distance, rows[depth - 1][j - 2] + 1);
+                }
+                current[j] = distance;
+                rowMin = Math.min(rowMin, distance);
+            }
+            final int child = lexicon.childOffset(node, i);
+            if (rowMin > maxDistance
+                    || out.isFull() && score(rowMin, lexicon.maxFrequency(child)) <= out.minScore()) {
+                continue;
+            }
+
+            path[depth] = c;
+            word[depth] = depth == 0 && capitalised ? Character.toUpperCase(original) : original;
+            final int frequency = lexicon.frequency(child);
+            if (frequency > 0 && current[n] <= maxDistance) {
+                out.offer(word, depth + 1, score(current[n], frequency));
+            }
+            if (depth + 1 < maxDepth) {
+                walk(child, depth + 1);
+            }
+        }
+    }
+
+    // Fewer edits always rank first, frequency breaks ties
+    private int score(int distance, int frequency) {
+        return (maxDistance + 1 - distance) * (Lexicon.MAX_FREQUENCY + 1) + frequency;
+    }
+}
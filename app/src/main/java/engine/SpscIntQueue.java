@@ -0,0 +1,65 @@
+package engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded lock free queue of ints for exactly one producer thread and one consumer thread. Neither
+ * side allocates or blocks: a full queue refuses the value, an empty one has nothing to give.
+ * Each side only writes its own counter and publishes it with an ordered store, which the other
+ * side's volatile read of it picks up together with the slots written before it.
+ */
+public class SpscIntQueue {
+
+    public static final int EMPTY = Integer.MIN_VALUE;
+
+    private final int[] slots;
+    private final int mask;
+    // Next slot to read, written by the consumer only
+    private final AtomicLong head = new AtomicLong();
+    // Next slot to write, written by the producer only
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    public SpscIntQueue(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+        }
+        final int size = Integer.highestOneBit(capacity) == capacity ? capacity : Integer.highestOneBit(capacity) << 1;
+        slots = new int[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Producer side: add a value unless the queue is full.
+     * @return false when the value was dropped
+     */
+    public boolean offer(int value) {
+        final long t = tail.get();
+        if (t - head.get() == slots.length) {
+            return false;
+        }
+        slots[(int) t & mask] = value;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    /**
+     * Consumer side: take the oldest value.
+     * @return the value, {@link #EMPTY} when there is none
+     */
+    public int poll() {
+        final long h = head.get();
+        if (h == tail.get()) {
+            return EMPTY;
+        }
+        final int value = slots[(int) h & mask];
+        head.lazySet(h + 1);
+        return value;
+    }
+
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+}
@@ -0,0 +1,51 @@
+package engine;
+
+/**
+ * Splits large text into chunks that can each be committed on their own. A chunk never ends inside a
+ * surrogate pair, and where possible not between a character and the combining marks following it,
+ * so every chunk is valid text on its own and a glyph is not torn across two edits.
+ */
+public class TextChunker {
+
+    private TextChunker() {
+    }
+
+    /**
+     * End of the chunk starting at {@code start}, at most {@code maxLength} chars long.
+     */
+    public static int chunkEnd(CharSequence text, int start, int maxLength) {
+        if (maxLength < 2) {
+            throw new IllegalArgumentException("Chunks must hold at least a surrogate pair");
+        }
+        final int length = text.length();
+        if (length - start <= maxLength) {
+            return length;
+        }
+
+        int end = start + maxLength;
+        // Whole code points
+        if (Character.isLowSurrogate(text.charAt(end)) && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        // Keep combining marks with their base character, unless the whole chunk is marks
+        int safe = end;
+        while (safe > start && isCombiningMark(Character.codePointAt(text, safe))) {
+            safe = Character.offsetByCodePoints(text, safe, -1);
+        }
+        if (safe > start) {
+            end = safe;
+        }
+        return end;
+    }
+
+    private static boolean isCombiningMark(int codePoint) {
+        switch (Character.getType(codePoint)) {
+            case Character.NON_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+                return true;
+            default:
+                return codePoint == 0x200D; // zero width joiner
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package softkeyboard;
+
+import android.os.Process;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small fixed size pools of background priority threads, which exit when they have been idle a while.
+ */
+class BackgroundThreads {
+
+    // Idle threads exit after this long
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private BackgroundThreads() {}
+
+    static ThreadPoolExecutor newPool(final String name, int threads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, name + "-" + count.incrementAndGet());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
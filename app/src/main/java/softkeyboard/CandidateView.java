@@ -0,0 +1,212 @@
+package softkeyboard;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.view.MotionEvent;
+import android.view.View;
+
+import com.example.android.softkeyboard.R;
+
+import engine.Candidates;
+
+/**
+ * Strip of word suggestions shown above the keyboard. Suggestions are drawn into a fixed set of slots
+ * rather than child views, the strip has a fixed height so updating it never asks the IME window for
+ * a new layout, and an update that shows the same words as before is dropped without a redraw.
+ */
+public class CandidateView extends View {
+
+    // Number of suggestion slots in the strip
+    static final int SLOT_COUNT = 5;
+    // Number of suggestion widths remembered between updates, a power of two
+    private static final int WIDTH_CACHE_SIZE = 128;
+    private static final int WIDTH_CACHE_WORD_LENGTH = 16;
+
+    private SoftKeyboard service;
+
+    // Drawn straight from its character buffers, a new suggestion never allocates a String
+    private final Candidates shown = new Candidates(SLOT_COUNT);
+    private final float[] slotLeft = new float[SLOT_COUNT];
+    private final float[] slotWidth = new float[SLOT_COUNT];
+    private int visibleSlots;
+    private int touchedSlot = -1;
+
+    // Direct mapped cache of suggestion widths: a word replaces whichever word shared its entry, and
+    // neither a hit nor a miss boxes the width
+    private final char[][] cachedWords = new char[WIDTH_CACHE_SIZE][];
+    private final int[] cachedLengths = new int[WIDTH_CACHE_SIZE];
+    private final float[] cachedWidths = new float[WIDTH_CACHE_SIZE];
+
+    private final Paint paint = new Paint();
+    private final Paint highlightPaint = new Paint();
+    private final int colorNormal;
+    private final int colorRecommended;
+    private final int horizontalPadding;
+    private final int verticalPadding;
+    private final int stripHeight;
+
+    // Resources.getColor(int, Theme) needs API 23 and minSdkVersion is 19; the colors are not themed
+    @SuppressWarnings("deprecation")
+    public CandidateView(Context context) {
+        super(context);
+        final Resources res = context.getResources();
+
+        colorNormal = res.getColor(R.color.candidate_normal);
+        colorRecommended = res.getColor(R.color.candidate_recommended);
+        highlightPaint.setColor(res.getColor(R.color.candidate_other));
+        setBackgroundColor(res.getColor(R.color.candidate_background));
+
+        horizontalPadding = res.getDimensionPixelSize(R.dimen.candidate_horizontal_padding);
+        verticalPadding = res.getDimensionPixelSize(R.dimen.candidate_vertical_padding);
+        paint.setAntiAlias(true);
+        paint.setTextSize(res.getDimensionPixelSize(R.dimen.candidate_font_height));
+        stripHeight = (int) (paint.descent() - paint.ascent()) + verticalPadding * 2;
+    }
+
+    /**
+     * A connection back to the service to communicate with the text field
+     */
+    public void setService(SoftKeyboard listener) {
+        service = listener;
+    }
+
+    /**
+     * Show the given suggestions, best first. The list is copied, the caller can reuse it.
+     */
+    void setSuggestions(Candidates suggestions) {
+        // Same words as on screen: nothing to measure or redraw
+        if (suggestions.sameWords(shown)) {
+            return;
+        }
+        shown.copyFrom(suggestions);
+        touchedSlot = -1;
+        layoutSlots();
+        invalidate();
+    }
+
+    /**
+     * Drop the cached text measurements, called under memory pressure.
+     */
+    void releaseCaches() {
+        for (int i = 0; i < WIDTH_CACHE_SIZE; i++) {
+            cachedWords[i] = null;
+        }
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // The height depends on the font only, so new suggestions never change the measured size.
+        setMeasuredDimension(resolveSize(getSuggestedMinimumWidth(), widthMeasureSpec), stripHeight);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        layoutSlots();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        final float baseline = verticalPadding - paint.ascent();
+        for (int i = 0; i < visibleSlots; i++) {
+            if (i == touchedSlot) {
+                canvas.drawRect(slotLeft[i], 0, slotLeft[i] + slotWidth[i], getHeight(), highlightPaint);
+            }
+            paint.setColor(i == 0 ? colorRecommended : colorNormal);
+            canvas.drawText(shown.getWord(i), 0, shown.getLength(i), slotLeft[i] + horizontalPadding, baseline, paint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        final int slot = slotAt(event.getX());
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+            case MotionEvent.ACTION_MOVE:
+                if (slot != touchedSlot) {
+                    touchedSlot = slot;
+                    invalidate();
+                }
+                break;
+
+            case MotionEvent.ACTION_UP:
+                if (slot >= 0 && slot == touchedSlot && service != null) {
+                    service.pickSuggestion(shown.toString(slot));
+                }
+                touchedSlot = -1;
+                invalidate();
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                touchedSlot = -1;
+                invalidate();
+                break;
+
+            default:
+        }
+        return true;
+    }
+
+    // Place the slots left to right, dropping the ones that do not fit the strip
+    private void layoutSlots() {
+        final int width = getWidth();
+        float x = 0;
+        visibleSlots = 0;
+        for (int i = 0; i < shown.size(); i++) {
+            final float w = measure(i) + horizontalPadding * 2;
+            if (width > 0 && x + w > width && i > 0) {
+                break;
+            }
+            slotLeft[i] = x;
+            slotWidth[i] = w;
+            x += w;
+            visibleSlots++;
+        }
+    }
+
+    // Width of the shown suggestion at the given index, measured once while it stays in the cache
+    private float measure(int index) {
+        final char[] word = shown.getWord(index);
+        final int length = shown.getLength(index);
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + word[i];
+        }
+        final int entry = (hash ^ (hash >>> 16)) & (WIDTH_CACHE_SIZE - 1);
+
+        char[] cached = cachedWords[entry];
+        if (cached != null && cachedLengths[entry] == length && sameChars(cached, word, length)) {
+            return cachedWidths[entry];
+        }
+        // Entry buffers only grow, once warm the cache stops allocating
+        if (cached == null || cached.length < length) {
+            cached = new char[Math.max(length, WIDTH_CACHE_WORD_LENGTH)];
+            cachedWords[entry] = cached;
+        }
+        System.arraycopy(word, 0, cached, 0, length);
+        cachedLengths[entry] = length;
+        cachedWidths[entry] = paint.measureText(word, 0, length);
+        return cachedWidths[entry];
+    }
+
+    private static boolean sameChars(char[] a, char[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int slotAt(float x) {
+        for (int i = 0; i < visibleSlots; i++) {
+            if (x >= slotLeft[i] && x < slotLeft[i] + slotWidth[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
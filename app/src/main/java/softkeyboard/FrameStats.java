@@ -0,0 +1,96 @@
+package softkeyboard;
+
+import java.io.PrintWriter;
+
+/**
+ * Draw cost of the keyboard view: totals per keyboard and shift state, and a ring of the most
+ * recent frames. Filled by {@link LatinKeyboardView} on every draw and printed by the service's
+ * dump(), so slow rendering can be told apart from slow input handling.
+ *
+ * Recorded on the main thread. dump() runs on a binder thread and reads the arrays and counters
+ * without locking: a dump taken during a draw may show that frame in some totals and not yet in
+ * others, or a ring slot half overwritten. That is acceptable for a diagnostic printout and keeps
+ * any locking off the draw path.
+ */
+class FrameStats {
+
+    static final int KEYBOARD_LETTERS = 0;
+    static final int KEYBOARD_NUMBERS = 1;
+    private static final String[] KEYBOARD_NAMES = { "keyboardLetters", "keyboardNumbers" };
+
+    // Number of recent frames kept in the ring
+    static final int RING_SIZE = 128;
+
+    // Buckets: keyboard * 2 + (shifted ? 1 : 0)
+    private static final int BUCKETS = 4;
+
+    private final long[] bucketFrames = new long[BUCKETS];
+    private final long[] bucketSlowDraws = new long[BUCKETS];
+    private final long[] bucketDrawNanos = new long[BUCKETS];
+    private final long[] bucketMaxNanos = new long[BUCKETS];
+    private final long[] bucketKeys = new long[BUCKETS];
+
+    private final long[] ringTime = new long[RING_SIZE];
+    private final int[] ringDrawNanos = new int[RING_SIZE];
+    private final short[] ringKeys = new short[RING_SIZE];
+    private final byte[] ringBucket = new byte[RING_SIZE];
+    private long frames;
+
+    /**
+     * Record one draw of the keyboard view.
+     * @param budgetNanos the display's refresh interval, a draw taking longer is counted as slow. It
+     * is only onDraw's own time, a slow draw does not by itself mean a frame was dropped.
+     */
+    void record(long startNanos, long drawNanos, int keysRepainted, int keyboard, boolean shifted, long budgetNanos) {
+        final int bucket = keyboard * 2 + (shifted ? 1 : 0);
+        bucketFrames[bucket]++;
+        bucketDrawNanos[bucket] += drawNanos;
+        bucketKeys[bucket] += keysRepainted;
+        if (drawNanos > bucketMaxNanos[bucket]) {
+            bucketMaxNanos[bucket] = drawNanos;
+        }
+        if (drawNanos > budgetNanos) {
+            bucketSlowDraws[bucket]++;
+        }
+
+        final int slot = (int) (frames % RING_SIZE);
+        ringTime[slot] = startNanos;
+        ringDrawNanos[slot] = (int) Math.min(drawNanos, Integer.MAX_VALUE);
+        ringKeys[slot] = (short) Math.min(keysRepainted, Short.MAX_VALUE);
+        ringBucket[slot] = (byte) bucket;
+        frames++;
+    }
+
+    void dump(PrintWriter out, String prefix) {
+        out.println(prefix + "Keyboard frames: " + frames);
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            final long count = bucketFrames[bucket];
+            if (count == 0) {
+                continue;
+            }
+            out.println(prefix + "  " + bucketName(bucket)
+                    + ": frames=" + count
+                    + " slowDraws=" + bucketSlowDraws[bucket]
+                    + " avgDrawUs=" + bucketDrawNanos[bucket] / count / 1000
+                    + " maxDrawUs=" + bucketMaxNanos[bucket] / 1000
+                    + " avgKeys=" + bucketKeys[bucket] / count);
+        }
+
+        final int recent = (int) Math.min(frames, RING_SIZE);
+        if (recent == 0) {
+            return;
+        }
+        out.println(prefix + "Recent frames (startMs drawUs keys keyboard):");
+        for (long i = frames - recent; i < frames; i++) {
+            final int slot = (int) (i % RING_SIZE);
+            out.println(prefix + "  " + ringTime[slot] / 1000000
+                    + " " + ringDrawNanos[slot] / 1000
+                    + " " + ringKeys[slot]
+                    + " " + bucketName(ringBucket[slot]));
+        }
+    }
+
+    private static String bucketName(int bucket) {
+        return KEYBOARD_NAMES[bucket / 2] + ((bucket & 1) != 0 ? " shifted" : "");
+    }
+}
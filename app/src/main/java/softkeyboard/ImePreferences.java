@@ -2,6 +2,7 @@ package softkeyboard;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.preference.CheckBoxPreference;
 import android.preference.PreferenceActivity;
 
 import com.example.android.softkeyboard.R;
@@ -42,6 +43,14 @@ public class ImePreferences extends PreferenceActivity {
 
             // Load the preferences from an XML resource
             addPreferencesFromResource(R.xml.ime_preferences);
+
+            // Until it is set, key sound follows the system's touch sounds: show that without storing it
+            final CheckBoxPreference sound = (CheckBoxPreference) findPreference(SoftKeyboard.PREF_SOUND_ON_KEYPRESS);
+            if (!sound.getSharedPreferences().contains(SoftKeyboard.PREF_SOUND_ON_KEYPRESS)) {
+                sound.setPersistent(false);
+                sound.setChecked(KeyFeedback.isSoundOn(getActivity(), sound.getSharedPreferences()));
+                sound.setPersistent(true);
+            }
         }
     }
 }
@@ -0,0 +1,175 @@
+package softkeyboard;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.media.AudioAttributes;
+import android.media.AudioManager;
+import android.media.SoundPool;
+import android.os.Build;
+import android.os.Process;
+import android.os.Vibrator;
+import android.provider.Settings;
+
+import com.example.android.softkeyboard.R;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import engine.SpscIntQueue;
+
+/**
+ * Key click sounds and vibration, played on a thread of their own so that key handling never waits
+ * for the audio or vibrator services. The main thread hands presses over through a one slot lock free
+ * queue and wakes the feedback thread only when it is asleep; a press arriving while the previous one
+ * still waits to be played is dropped rather than played late.
+ *
+ * {@link #onKeyPress} must only be called from one thread, the main thread.
+ */
+class KeyFeedback {
+
+    private static final String TAG = "KeyFeedback";
+
+    // Kinds of press, played at slightly different pitches
+    static final int PRESS_STANDARD = 0;
+    static final int PRESS_DELETE = 1;
+    static final int PRESS_SPACE = 2;
+    static final int PRESS_RETURN = 3;
+    private static final float[] PLAYBACK_RATES = { 1.0f, 0.85f, 0.92f, 0.8f };
+
+    // Presses waiting to be played: feedback is only useful right away, a second waiting press would be stale
+    static final int QUEUE_CAPACITY = 1;
+    static final float CLICK_VOLUME = 0.3f;
+    static final long VIBRATE_MILLIS = 15;
+
+    private final Context context;
+    private final SpscIntQueue presses = new SpscIntQueue(QUEUE_CAPACITY);
+    // Set by the feedback thread before it parks, so a press only pays for a wake up when one is needed
+    private final AtomicBoolean sleeping = new AtomicBoolean();
+    private final Thread thread;
+
+    // Written by the main thread, read by the feedback thread
+    private volatile boolean soundOn;
+    private volatile boolean vibrateOn;
+    private volatile boolean running = true;
+    // Also read by dump() on a binder thread
+    private final AtomicInteger dropped = new AtomicInteger();
+
+    // Only touched by the feedback thread
+    private SoundPool soundPool;
+    private int clickSound;
+    private Vibrator vibrator;
+    // Set once the click has been decoded, SoundPool reports that on the main thread
+    private volatile boolean clickLoaded;
+
+    KeyFeedback(Context context) {
+        this.context = context.getApplicationContext();
+        thread = new Thread(new Runnable() {
+            @Override public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_AUDIO);
+                loop();
+            }
+        }, TAG);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * @return the sound setting, following the system's touch sounds setting until the user sets it
+     */
+    static boolean isSoundOn(Context context, SharedPreferences preferences) {
+        if (preferences.contains(SoftKeyboard.PREF_SOUND_ON_KEYPRESS)) {
+            return preferences.getBoolean(SoftKeyboard.PREF_SOUND_ON_KEYPRESS, false);
+        }
+        return Settings.System.getInt(context.getContentResolver(), Settings.System.SOUND_EFFECTS_ENABLED, 1) != 0;
+    }
+
+    void setSoundOn(boolean soundOn) {
+        this.soundOn = soundOn;
+    }
+
+    void setVibrateOn(boolean vibrateOn) {
+        this.vibrateOn = vibrateOn;
+    }
+
+    /**
+     * Queue feedback for a key press. Does not block or allocate.
+     */
+    void onKeyPress(int kind) {
+        if (!soundOn && !vibrateOn) {
+            return;
+        }
+        if (!presses.offer(kind)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        // Swapping rather than reading the flag orders it after the press was published
+        if (sleeping.getAndSet(false)) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    int getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Stop the feedback thread and release the sound pool.
+     */
+    void shutdown() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void loop() {
+        open();
+        while (running) {
+            final int kind = presses.poll();
+            if (kind != SpscIntQueue.EMPTY) {
+                play(kind);
+                continue;
+            }
+            sleeping.set(true);
+            // Check again once the flag is up, a press queued just before it would not wake us
+            if (presses.isEmpty() && running) {
+                LockSupport.park(this);
+            }
+            sleeping.set(false);
+        }
+        soundPool.release();
+    }
+
+    private void open() {
+        vibrator = (Vibrator) context.getSystemService(Context.VIBRATOR_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            soundPool = new SoundPool.Builder()
+                    .setMaxStreams(2)
+                    .setAudioAttributes(new AudioAttributes.Builder()
+                            .setUsage(AudioAttributes.USAGE_ASSISTANCE_SONIFICATION)
+                            .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                            .build())
+                    .build();
+        }
+        else {
+            soundPool = new SoundPool(2, AudioManager.STREAM_SYSTEM, 0);
+        }
+        // Decoding happens in the background, presses before it is done are silent
+        soundPool.setOnLoadCompleteListener(new SoundPool.OnLoadCompleteListener() {
+            @Override public void onLoadComplete(SoundPool pool, int sampleId, int status) {
+                clickLoaded = status == 0;
+            }
+        });
+        clickSound = soundPool.load(context, R.raw.key_click, 1);
+    }
+
+    private void play(int kind) {
+        if (soundOn && clickLoaded) {
+            soundPool.play(clickSound, CLICK_VOLUME, CLICK_VOLUME, 1, 0, PLAYBACK_RATES[kind]);
+        }
+        if (vibrateOn && vibrator != null) {
+            vibrator.vibrate(VIBRATE_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package softkeyboard;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps track of the caches held by the input method and releases them in tiers when the system
+ * reports memory pressure, so the low memory killer has less reason to pick the IME process.
+ * Released caches are rebuilt the next time the keyboard is about to be shown.
+ */
+class KeyboardMemoryManager {
+
+    // Cheapest to rebuild: rendered key bitmaps and suggestion buffers
+    static final int TIER_RENDERING = 1;
+    // Lexicon mappings and their lookup tables
+    static final int TIER_LEXICONS = 2;
+    // Parsed keyboard layouts
+    static final int TIER_LAYOUTS = 3;
+
+    /**
+     * A cache that can be dropped under memory pressure and rebuilt later.
+     */
+    interface Cache {
+        /**
+         * Drop whatever this cache holds, if it can be dropped now. Called on the main thread.
+         * @return whether anything was dropped, a cache that declined is asked again at the next trim
+         */
+        boolean release();
+
+        /**
+         * Rebuild what {@link #release()} dropped, either right away or lazily / in the background.
+         * Called on the main thread.
+         */
+        void rewarm();
+    }
+
+    private static class Entry {
+        final int tier;
+        final Cache cache;
+        boolean released;
+
+        Entry(int tier, Cache cache) {
+            this.tier = tier;
+            this.cache = cache;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    void register(int tier, Cache cache) {
+        entries.add(new Entry(tier, cache));
+    }
+
+    // Map the trim level reported by the system to the highest tier that should be released
+    static int tierForLevel(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            return TIER_LAYOUTS;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TIER_LEXICONS;
+        }
+        else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return TIER_RENDERING;
+        }
+        return 0;
+    }
+
+    /**
+     * Release every registered cache whose tier is covered by the given trim level.
+     */
+    void onTrimMemory(int level) {
+        final int maxTier = tierForLevel(level);
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            if (entry.tier <= maxTier && !entry.released) {
+                entry.released = entry.cache.release();
+            }
+        }
+    }
+
+    /**
+     * Rebuild every cache released since the last call, in registration order.
+     */
+    void rewarm() {
+        for (int i = 0; i < entries.size(); i++) {
+            final Entry entry = entries.get(i);
+            if (entry.released) {
+                entry.released = false;
+                entry.cache.rewarm();
+            }
+        }
+    }
+}
@@ -16,13 +16,22 @@ public class LatinKeyboard extends Keyboard {
     private Key languageSwitchKey;
     private Key savedChangeModeKey;
     private Key savedLanguageSwitchKey;
+
+    // Number of keyboards parsed since the process started, reported by the service's dump()
+    private static int instancesCreated;
     
     public LatinKeyboard(Context context, int xmlLayoutResId) {
         super(context, xmlLayoutResId);
+        instancesCreated++;
     }
 
     public LatinKeyboard(Context context, int layoutTemplateResId, CharSequence characters, int columns, int horizontalPadding) {
         super(context, layoutTemplateResId, characters, columns, horizontalPadding);
+        instancesCreated++;
+    }
+
+    static int getInstancesCreated() {
+        return instancesCreated;
     }
 
     @Override
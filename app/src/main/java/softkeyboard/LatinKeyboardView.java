@@ -2,11 +2,13 @@ package softkeyboard;
 
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.Canvas;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.Keyboard.Key;
 import android.inputmethodservice.KeyboardView;
 import android.os.Build;
 import android.util.AttributeSet;
+import android.view.Display;
 import android.view.inputmethod.InputMethodSubtype;
 
 @TargetApi(Build.VERSION_CODES.CUPCAKE)
@@ -15,6 +17,17 @@ public class LatinKeyboardView extends KeyboardView {
     static final int KEYCODE_OPTIONS = -100;
     static final int KEYCODE_LANGUAGE_SWITCH = -101;
 
+    // Refresh interval assumed when the display does not report one
+    private static final long DEFAULT_FRAME_BUDGET_NANOS = 16666667;
+
+    private FrameStats frameStats;
+    private int keyboardTag = FrameStats.KEYBOARD_LETTERS;
+    private long frameBudgetNanos = DEFAULT_FRAME_BUDGET_NANOS;
+
+    // Keys invalidated since the last draw, a full redraw repaints every key
+    private int dirtyKeys;
+    private boolean fullRedraw = true;
+
     public LatinKeyboardView(Context context, AttributeSet attrs) {
         super(context, attrs);
     }
@@ -24,6 +37,76 @@ public class LatinKeyboardView extends KeyboardView {
         super(context, attrs, defStyle);
     }
 
+    /**
+     * Record the cost of every draw in the given stats.
+     */
+    void setFrameStats(FrameStats frameStats) {
+        this.frameStats = frameStats;
+    }
+
+    /**
+     * Tell the view which keyboard it is showing, one of the FrameStats keyboard constants.
+     */
+    void setKeyboardTag(int keyboardTag) {
+        this.keyboardTag = keyboardTag;
+    }
+
+    @Override
+    public void setKeyboard(Keyboard keyboard) {
+        super.setKeyboard(keyboard);
+        fullRedraw = true;
+    }
+
+    @Override
+    public void invalidateAllKeys() {
+        super.invalidateAllKeys();
+        fullRedraw = true;
+    }
+
+    @Override
+    public void invalidateKey(int keyIndex) {
+        super.invalidateKey(keyIndex);
+        dirtyKeys++;
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        final Display display = getDisplay();
+        final float refreshRate = display != null ? display.getRefreshRate() : 0;
+        frameBudgetNanos = refreshRate > 0 ? (long) (1000000000L / refreshRate) : DEFAULT_FRAME_BUDGET_NANOS;
+    }
+
+    @Override
+    public void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        fullRedraw = true;
+    }
+
+    @Override
+    public void closing() {
+        super.closing();
+        // The key bitmap is gone, the next draw repaints every key.
+        fullRedraw = true;
+    }
+
+    @Override
+    public void onDraw(Canvas canvas) {
+        if (frameStats == null) {
+            super.onDraw(canvas);
+            return;
+        }
+        final long start = System.nanoTime();
+        super.onDraw(canvas);
+        final long drawNanos = System.nanoTime() - start;
+
+        final Keyboard keyboard = getKeyboard();
+        final int keys = fullRedraw && keyboard != null ? keyboard.getKeys().size() : dirtyKeys;
+        frameStats.record(start, drawNanos, keys, keyboardTag, isShifted(), frameBudgetNanos);
+        dirtyKeys = 0;
+        fullRedraw = false;
+    }
+
     @TargetApi(Build.VERSION_CODES.CUPCAKE)
     @Override
     protected boolean onLongPress(Key key) {
@@ -0,0 +1,36 @@
+package softkeyboard;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import engine.Lexicon;
+
+/**
+ * Opens the binary lexicons compiled into the APK's assets at build time.
+ */
+class LexiconAssets {
+
+    static final String DIRECTORY = "dictionaries/";
+    static final String SUFFIX = ".lex";
+
+    private LexiconAssets() {}
+
+    /**
+     * Memory map the lexicon for the given locale (for example en_US). Only the header is read here,
+     * the rest is paged in by lookups.
+     */
+    static Lexicon open(Context context, String locale) throws IOException {
+        // Lexicons are stored uncompressed, so they can be mapped straight from the APK file.
+        final AssetFileDescriptor descriptor = context.getAssets().openFd(DIRECTORY + locale + SUFFIX);
+        final FileInputStream stream = descriptor.createInputStream();
+        try {
+            return Lexicon.map(stream.getChannel(), descriptor.getStartOffset(), descriptor.getLength());
+        }
+        finally {
+            stream.close();
+        }
+    }
+}
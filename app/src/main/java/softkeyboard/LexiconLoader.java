@@ -0,0 +1,183 @@
+package softkeyboard;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import engine.Lexicon;
+
+/**
+ * Process wide registry of the lexicons of the enabled subtypes, shared by the keyboard and anything
+ * else in the process that looks words up. Lexicons are opened in parallel on a small pool of
+ * background threads; opening one only maps it and checks its header, the trie pages fault in as
+ * lookups reach them. Each locale is opened once, callers wait only for the lexicons they need.
+ */
+class LexiconLoader {
+
+    private static final String TAG = "LexiconLoader";
+    static final int THREADS = 2;
+
+    /**
+     * Told on the main thread when a lexicon has been opened.
+     */
+    interface Listener {
+        void onLexiconLoaded(String locale, Lexicon lexicon);
+    }
+
+    private static LexiconLoader instance;
+
+    private final Context context;
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Future<Lexicon>> loads = new HashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private LexiconLoader(Context context) {
+        this.context = context;
+        executor = BackgroundThreads.newPool(TAG, THREADS);
+    }
+
+    static synchronized LexiconLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new LexiconLoader(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start opening the lexicon for the given locale unless it is open or being opened already.
+     */
+    Future<Lexicon> load(final String locale) {
+        synchronized (loads) {
+            Future<Lexicon> load = loads.get(locale);
+            if (load == null) {
+                final FutureTask<Lexicon> task = new FutureTask<Lexicon>(new Callable<Lexicon>() {
+                    @Override public Lexicon call() throws Exception {
+                        return LexiconAssets.open(context, locale);
+                    }
+                }) {
+                    @Override protected void done() {
+                        notifyLoaded(locale, this);
+                    }
+                };
+                loads.put(locale, task);
+                executor.execute(task);
+                load = task;
+            }
+            return load;
+        }
+    }
+
+    void loadAll(List<String> locales) {
+        for (String locale : locales) {
+            load(locale);
+        }
+    }
+
+    /**
+     * Wait at most the given time for the lexicon of the given locale, starting to open it if needed.
+     * A locale without a lexicon answers right away once its load has failed.
+     * @return the lexicon, null when there is none for the locale or it is not open in time
+     */
+    Lexicon await(String locale, long timeoutMillis) {
+        try {
+            return load(locale).get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (TimeoutException e) {
+            Log.w(TAG, "Lexicon for " + locale + " not open after " + timeoutMillis + " ms");
+        }
+        catch (ExecutionException e) {
+            // Logged once when the load finished
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+
+    /**
+     * @return true when opening the lexicon of the given locale has finished, whether or not there is one
+     */
+    boolean isSettled(String locale) {
+        final Future<Lexicon> load;
+        synchronized (loads) {
+            load = loads.get(locale);
+        }
+        return load != null && load.isDone();
+    }
+
+    /**
+     * @return the lexicon of the given locale if it has been opened, without waiting
+     */
+    Lexicon peek(String locale) {
+        final Future<Lexicon> load;
+        synchronized (loads) {
+            load = loads.get(locale);
+        }
+        if (load == null || !load.isDone()) {
+            return null;
+        }
+        try {
+            return load.get();
+        }
+        catch (ExecutionException | InterruptedException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Forget the opened lexicons, their mappings go once nobody else holds them. They are opened
+     * again by the next load. Loads still running are kept, so the listeners told when they finish
+     * can still peek at them.
+     */
+    void release() {
+        synchronized (loads) {
+            final Iterator<Future<Lexicon>> iterator = loads.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().isDone()) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    private void notifyLoaded(final String locale, Future<Lexicon> load) {
+        final Lexicon lexicon;
+        try {
+            lexicon = load.get();
+        }
+        catch (ExecutionException | InterruptedException e) {
+            Log.w(TAG, "No lexicon for " + locale, e.getCause());
+            return;
+        }
+        mainHandler.post(new Runnable() {
+            @Override public void run() {
+                for (Listener listener : listeners) {
+                    listener.onLexiconLoaded(locale, lexicon);
+                }
+            }
+        });
+    }
+}
@@ -1,34 +1,65 @@
 package softkeyboard;
 
 import android.app.Dialog;
+import android.content.SharedPreferences;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
 import android.os.IBinder;
+import android.preference.PreferenceManager;
 import android.text.InputType;
 import android.text.method.MetaKeyKeyListener;
+import android.util.Log;
 import android.view.KeyCharacterMap;
 import android.view.KeyEvent;
 import android.view.View;
 import android.view.Window;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputMethodInfo;
 import android.view.inputmethod.InputMethodManager;
+import android.view.inputmethod.InputMethodSubtype;
 
 import com.example.android.softkeyboard.R;
 
-public class SoftKeyboard extends InputMethodService implements KeyboardView.OnKeyboardActionListener {
-
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import engine.Candidates;
+import engine.EditSink;
+import engine.InputEngine;
+import engine.Lexicon;
+import engine.MetricsRing;
+import engine.MultiLexiconQuery;
+
+public class SoftKeyboard extends InputMethodService
+        implements KeyboardView.OnKeyboardActionListener, LexiconLoader.Listener {
+
+    static final String TAG = "SoftKeyboard";
     static final boolean PROCESS_HARD_KEYS = true;
-    private boolean capsLock;
-    boolean predictionOn;
-
-    private String wordSeparators;
-    private StringBuilder stringBuilder = new StringBuilder();
+    static final String DEFAULT_LOCALE = "en_US";
+    // Persistent ring of performance samples in the app's private files, decoded offline by MetricsExport
+    static final String METRICS_FILE = "metrics.ring";
+    static final int METRICS_CAPACITY = 4096;
+    static final String METRICS_THREAD = "MetricsRing";
+    // The active subtype's lexicon plus at most this many others are queried for suggestions
+    static final int MAX_SECONDARY_LEXICONS = 1;
+    // Keys of the feedback settings in ime_preferences.xml
+    static final String PREF_SOUND_ON_KEYPRESS = "sound_on_keypress";
+    static final String PREF_VIBRATE_ON_KEYPRESS = "vibrate_on_keypress";
+
+    // Shift, composing, separator and backspace handling, driven by the events below
+    private InputEngine engine;
 
     private int lastDisplayWidth;
-    private long lastShiftTime;
     private long metaState;
+    private int interfaceRebuilds;
 
     // Different Keyboards
     private LatinKeyboard keyboardNumbers;
@@ -36,15 +67,232 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
     private LatinKeyboard currentKeyboard;
 
     private LatinKeyboardView inputView;
+    private CandidateView candidateView;
     private InputMethodManager inputMethodManager;
 
+    // Lexicons of the active and other enabled subtypes and the suggestions computed from them, reused on every keystroke
+    private final MultiLexiconQuery suggestQuery = new MultiLexiconQuery();
+    private LexiconLoader lexiconLoader;
+    // Locales queried for suggestions, the active subtype's first, and whether its lexicon has finished
+    // opening, or turned out not to exist
+    private final List<String> lexiconLocales = new ArrayList<>();
+    private boolean activeLexiconSettled;
+    private final Candidates suggestions = new Candidates(CandidateView.SLOT_COUNT);
+    private final KeyboardMemoryManager memoryManager = new KeyboardMemoryManager();
+    // Outlives input views recreated on configuration changes
+    private final FrameStats frameStats = new FrameStats();
+    // Set once the ring is open on a background thread, samples recorded before then are dropped
+    private volatile MetricsRing metrics;
+    private StreamingCommitter streamer;
+    // Selection and end of the composing region last reported by the editor, -1 when unknown
+    private int selStart = -1;
+    private int selEnd = -1;
+    private int candidatesEnd = -1;
+    // Whether keys typed into the current field are sampled, not for passwords and the like
+    private boolean sampleKeys;
+    private KeyFeedback keyFeedback;
+    // InputConnection calls made during the current input session
+    private int ipcCalls;
+
     /**
      * Main initialization of the input method component
      */
     @Override public void onCreate() {
+        final long start = System.nanoTime();
         super.onCreate();
         inputMethodManager = (InputMethodManager)getSystemService(INPUT_METHOD_SERVICE);
-        wordSeparators = getResources().getString(R.string.word_separators);
+        engine = new InputEngine(new InputConnectionSink(),
+                getResources().getString(R.string.word_separators),
+                getResources().getInteger(R.integer.composing_limit),
+                getResources().getInteger(R.integer.composing_keep));
+        streamer = new StreamingCommitter(new StreamingCommitter.Target() {
+                    @Override public void commitChunk(CharSequence chunk) {
+                        engine.onText(chunk, 1);
+                    }
+                },
+                getResources().getInteger(R.integer.stream_threshold),
+                getResources().getInteger(R.integer.stream_chunk_length),
+                getResources().getInteger(R.integer.stream_ack_timeout_ms));
+        keyFeedback = new KeyFeedback(this);
+        keyFeedback.start();
+        lexiconLoader = LexiconLoader.getInstance(this);
+        lexiconLoader.addListener(this);
+        requestLexicons(inputMethodManager.getCurrentInputMethodSubtype());
+        registerCaches();
+        openMetrics(System.nanoTime() - start);
+    }
+
+    @Override public void onDestroy() {
+        lexiconLoader.removeListener(this);
+        keyFeedback.shutdown();
+        super.onDestroy();
+    }
+
+    /**
+     * Map the metrics ring on a background thread, sizing and mapping the file has no place in
+     * onCreate. The ring records the create span itself once it is open.
+     */
+    private void openMetrics(final long createNanos) {
+        final ThreadPoolExecutor opener = BackgroundThreads.newPool(METRICS_THREAD, 1);
+        opener.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    final MetricsRing ring = MetricsRing.open(new File(getFilesDir(), METRICS_FILE), METRICS_CAPACITY);
+                    ring.record(MetricsRing.STARTUP_SPAN, MetricsRing.SPAN_CREATE, createNanos);
+                    metrics = ring;
+                }
+                catch (IOException e) {
+                    Log.w(TAG, "Metrics are not recorded", e);
+                }
+            }
+        });
+        opener.shutdown();
+    }
+
+    // Record a sample in the persistent metrics ring, dropped while it is not open
+    private void recordMetric(int type, int tag, long value) {
+        final MetricsRing ring = metrics;
+        if (ring != null) {
+            ring.record(type, tag, value);
+        }
+    }
+
+    // Start opening the lexicons of all enabled subtypes in the background, the active subtype's first
+    private void requestLexicons(InputMethodSubtype active) {
+        final List<String> locales = new ArrayList<>();
+        locales.add(active != null ? active.getLocale() : DEFAULT_LOCALE);
+        for (InputMethodSubtype subtype : getEnabledSubtypes()) {
+            if (!locales.contains(subtype.getLocale())) {
+                locales.add(subtype.getLocale());
+            }
+        }
+        lexiconLoader.loadAll(locales);
+
+        lexiconLocales.clear();
+        lexiconLocales.addAll(locales.subList(0, Math.min(locales.size(), 1 + MAX_SECONDARY_LEXICONS)));
+        installLexicons(false);
+    }
+
+    /**
+     * Query the lexicons opened so far, the secondary ones are picked up as they finish loading.
+     * @param waitForActive wait, for a bounded time, until the active subtype's lexicon is open
+     */
+    private void installLexicons(boolean waitForActive) {
+        final Lexicon[] lexicons = new Lexicon[lexiconLocales.size()];
+        final int[] weights = new int[lexicons.length];
+        int count = 0;
+        for (int i = 0; i < lexiconLocales.size(); i++) {
+            final Lexicon lexicon = i == 0 && waitForActive
+                    ? lexiconLoader.await(lexiconLocales.get(i), getResources().getInteger(R.integer.lexicon_wait_ms))
+                    : lexiconLoader.peek(lexiconLocales.get(i));
+            if (lexicon != null) {
+                lexicons[count] = lexicon;
+                weights[count] = getResources().getInteger(i == 0 ? R.integer.lexicon_weight_active : R.integer.lexicon_weight_secondary);
+                count++;
+            }
+        }
+        final Lexicon[] installed = new Lexicon[count];
+        final int[] installedWeights = new int[count];
+        System.arraycopy(lexicons, 0, installed, 0, count);
+        System.arraycopy(weights, 0, installedWeights, 0, count);
+        suggestQuery.setLexicons(installed, installedWeights);
+        // A locale without a lexicon is settled too, focusing a field must not wait for it again
+        activeLexiconSettled = !lexiconLocales.isEmpty() && lexiconLoader.isSettled(lexiconLocales.get(0));
+    }
+
+    @Override public void onLexiconLoaded(String locale, Lexicon lexicon) {
+        if (!lexiconLocales.contains(locale)) {
+            return;
+        }
+        installLexicons(false);
+        if (isInputViewShown()) {
+            setCandidatesViewShown(engine.isPredictionOn() && !suggestQuery.isEmpty());
+            updateCandidates();
+        }
+    }
+
+    private List<InputMethodSubtype> getEnabledSubtypes() {
+        for (InputMethodInfo imi : inputMethodManager.getEnabledInputMethodList()) {
+            if (imi.getPackageName().equals(getPackageName())) {
+                return inputMethodManager.getEnabledInputMethodSubtypeList(imi, true);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    // Register the caches that can be dropped under memory pressure and rebuilt on the next onStartInputView
+    private void registerCaches() {
+        memoryManager.register(KeyboardMemoryManager.TIER_RENDERING, new KeyboardMemoryManager.Cache() {
+            @Override public boolean release() {
+                // Closing the view frees its key bitmap, it gets redrawn when the keyboard is shown again.
+                if (inputView == null || isInputViewShown()) {
+                    return false;
+                }
+                inputView.closing();
+                return true;
+            }
+
+            @Override public void rewarm() {}
+        });
+        memoryManager.register(KeyboardMemoryManager.TIER_RENDERING, new KeyboardMemoryManager.Cache() {
+            @Override public boolean release() {
+                if (candidateView == null) {
+                    return false;
+                }
+                candidateView.releaseCaches();
+                return true;
+            }
+
+            @Override public void rewarm() {}
+        });
+        memoryManager.register(KeyboardMemoryManager.TIER_LEXICONS, new KeyboardMemoryManager.Cache() {
+            @Override public boolean release() {
+                if (isInputViewShown()) {
+                    return false;
+                }
+                suggestQuery.clear();
+                activeLexiconSettled = false;
+                lexiconLoader.release();
+                return true;
+            }
+
+            @Override public void rewarm() {
+                if (suggestQuery.isEmpty()) {
+                    requestLexicons(inputMethodManager.getCurrentInputMethodSubtype());
+                }
+            }
+        });
+        memoryManager.register(KeyboardMemoryManager.TIER_LAYOUTS, new KeyboardMemoryManager.Cache() {
+            @Override public boolean release() {
+                // The keyboard attached to the input view cannot be freed, only drop the other one.
+                if (isInputViewShown()) {
+                    return false;
+                }
+                final Keyboard attached = inputView != null ? inputView.getKeyboard() : null;
+                boolean released = false;
+                if (keyboardLetters != null && keyboardLetters != attached) {
+                    keyboardLetters = null;
+                    released = true;
+                }
+                if (keyboardNumbers != null && keyboardNumbers != attached) {
+                    keyboardNumbers = null;
+                    released = true;
+                }
+                return released;
+            }
+
+            @Override public void rewarm() {
+                buildKeyboards();
+            }
+        });
+    }
+
+    /**
+     * Release caches according to how hard the system is pressed for memory.
+     */
+    @Override public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        memoryManager.onTrimMemory(level);
     }
 
     /**
@@ -52,31 +300,63 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
      * It is called after creation and any configuration change.
      */
     @Override public void onInitializeInterface() {
+        final int displayWidth = getMaxWidth();
         if (keyboardLetters != null) {
             // Configuration changes can happen after the keyboard gets recreated,
             // so we need to be able to re-build the keyboards if the available space has changed.
-            int displayWidth = getMaxWidth();
             if (displayWidth == lastDisplayWidth) return;
-            lastDisplayWidth = displayWidth;
         }
+        lastDisplayWidth = displayWidth;
+        final long start = System.nanoTime();
         keyboardLetters = new LatinKeyboard(this, R.xml.qwerty);
         keyboardNumbers = new LatinKeyboard(this, R.xml.symbols);
         //mSymbolsShiftedKeyboard = new LatinKeyboard(this, R.xml.symbols_shift);
+        interfaceRebuilds++;
+        recordMetric(MetricsRing.LAYOUT_REBUILD, 0, System.nanoTime() - start);
+    }
+
+    // Rebuild any keyboard layout released under memory pressure
+    private void buildKeyboards() {
+        if (keyboardLetters == null) {
+            keyboardLetters = new LatinKeyboard(this, R.xml.qwerty);
+        }
+        if (keyboardNumbers == null) {
+            keyboardNumbers = new LatinKeyboard(this, R.xml.symbols);
+        }
     }
 
     // Set and display the letter keyboard first time the keyboard is called
     @Override public View onCreateInputView() {
+        final long start = System.nanoTime();
         inputView = (LatinKeyboardView) getLayoutInflater().inflate(R.layout.input, null);
         inputView.setOnKeyboardActionListener(this);
         inputView.setPreviewEnabled(false);
+        inputView.setFrameStats(frameStats);
         setLatinKeyboard(keyboardLetters);
+        recordMetric(MetricsRing.STARTUP_SPAN, MetricsRing.SPAN_CREATE_INPUT_VIEW, System.nanoTime() - start);
         return inputView;
     }
 
+    /**
+     * Create the strip of word suggestions shown above the keyboard.
+     */
+    @Override public View onCreateCandidatesView() {
+        candidateView = new CandidateView(this);
+        candidateView.setService(this);
+        return candidateView;
+    }
+
     private void setLatinKeyboard(LatinKeyboard nextKeyboard) {
         final boolean shouldSupportLanguageSwitchKey = inputMethodManager.shouldOfferSwitchingToNextInputMethod(getToken());
         nextKeyboard.setLanguageSwitchKeyVisibility(shouldSupportLanguageSwitchKey);
         inputView.setKeyboard(nextKeyboard);
+        inputView.setKeyboardTag(nextKeyboard == keyboardNumbers ? FrameStats.KEYBOARD_NUMBERS : FrameStats.KEYBOARD_LETTERS);
+
+        engine.setLettersActive(nextKeyboard == keyboardLetters);
+        if (nextKeyboard == keyboardLetters) {
+            // A rebuilt layout starts unshifted, carry over the engine's state.
+            inputView.setShifted(engine.isShifted());
+        }
     }
 
     @Override public void onStartInput(EditorInfo attribute, boolean restarting) {
@@ -84,7 +364,15 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
 
         // Reset our state.  We want to do this even if restarting, because
         // the underlying state of the text editor could have changed in any way.
-        stringBuilder.setLength(0);
+        engine.onStartInput();
+        engine.setPredictionOn(false);
+        selStart = attribute.initialSelStart;
+        selEnd = attribute.initialSelEnd;
+        candidatesEnd = -1;
+        sampleKeys = shouldSample(attribute.inputType);
+
+        // Layouts released under memory pressure are needed before a keyboard can be picked below.
+        buildKeyboards();
 
         if (!restarting) {
             // Clear shift states.
@@ -108,16 +396,51 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
             case InputType.TYPE_CLASS_TEXT:
                 // This is general text editing.  We will default to the normal alphabetic keyboard
                 currentKeyboard = keyboardLetters;
+                engine.setPredictionOn(shouldPredict(attribute.inputType));
 
                 // We also want to look at the current state of the editor to decide
                 // whether our alphabetic keyboard should start out shifted.
-                updateShiftKeyState(attribute);
+                engine.updateShiftState();
                 break;
 
             default:
                 // For all unknown input types, default to the alphabetic keyboard with no special features.
                 currentKeyboard = keyboardLetters;
-                updateShiftKeyState(attribute);
+                engine.updateShiftState();
+        }
+    }
+
+    // Passwords, addresses and filters don't get suggestions, nor do fields that ask not to
+    private static boolean shouldPredict(int inputType) {
+        if ((inputType & InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS) != 0) {
+            return false;
+        }
+        switch (inputType & InputType.TYPE_MASK_VARIATION) {
+            case InputType.TYPE_TEXT_VARIATION_PASSWORD:
+            case InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD:
+            case InputType.TYPE_TEXT_VARIATION_WEB_PASSWORD:
+            case InputType.TYPE_TEXT_VARIATION_EMAIL_ADDRESS:
+            case InputType.TYPE_TEXT_VARIATION_URI:
+            case InputType.TYPE_TEXT_VARIATION_FILTER:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    // Keys typed into passwords, or into fields that ask for no suggestions, are not sampled at all
+    private static boolean shouldSample(int inputType) {
+        final int variation = inputType & InputType.TYPE_MASK_VARIATION;
+        switch (inputType & InputType.TYPE_MASK_CLASS) {
+            case InputType.TYPE_CLASS_TEXT:
+                return (inputType & InputType.TYPE_TEXT_FLAG_NO_SUGGESTIONS) == 0
+                        && variation != InputType.TYPE_TEXT_VARIATION_PASSWORD
+                        && variation != InputType.TYPE_TEXT_VARIATION_VISIBLE_PASSWORD
+                        && variation != InputType.TYPE_TEXT_VARIATION_WEB_PASSWORD;
+            case InputType.TYPE_CLASS_NUMBER:
+                return variation != InputType.TYPE_NUMBER_VARIATION_PASSWORD;
+            default:
+                return true;
         }
     }
 
@@ -125,8 +448,17 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
     @Override public void onFinishInput() {
         super.onFinishInput();
 
+        // The rest of a streamed text was meant for the editor that has gone.
+        streamer.cancel();
         // Clear current composing text and candidates.
-        stringBuilder.setLength(0);
+        engine.onFinishInput();
+        updateCandidates();
+        setCandidatesViewShown(false);
+
+        if (ipcCalls > 0) {
+            recordMetric(MetricsRing.IPC_CALLS, 0, ipcCalls);
+            ipcCalls = 0;
+        }
 
         currentKeyboard = keyboardLetters;
 
@@ -136,10 +468,38 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
     }
 
     @Override public void onStartInputView(EditorInfo attribute, boolean restarting) {
+        final long start = System.nanoTime();
         super.onStartInputView(attribute, restarting);
+        // Rebuild whatever was released under memory pressure since the keyboard was last shown.
+        memoryManager.rewarm();
         // Apply the selected keyboard to the input view.
         setLatinKeyboard(currentKeyboard);
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        keyFeedback.setSoundOn(KeyFeedback.isSoundOn(this, preferences));
+        keyFeedback.setVibrateOn(preferences.getBoolean(PREF_VIBRATE_ON_KEYPRESS, false));
         inputView.closing();
+        // Only the active subtype's lexicon is worth waiting for, the others are added when they are open
+        if (!activeLexiconSettled) {
+            installLexicons(true);
+        }
+        setCandidatesViewShown(engine.isPredictionOn() && !suggestQuery.isEmpty());
+        recordMetric(MetricsRing.STARTUP_SPAN, MetricsRing.SPAN_START_INPUT_VIEW, System.nanoTime() - start);
+    }
+
+    @Override public void onCurrentInputMethodSubtypeChanged(InputMethodSubtype subtype) {
+        super.onCurrentInputMethodSubtypeChanged(subtype);
+        requestLexicons(subtype);
+        updateCandidates();
+    }
+
+    /**
+     * Print the keyboard view's draw cost along with the service state, see "adb shell dumpsys input_method".
+     */
+    @Override protected void dump(FileDescriptor fd, PrintWriter fout, String[] args) {
+        super.dump(fd, fout, args);
+        fout.println("  Interface rebuilds: " + interfaceRebuilds + ", LatinKeyboard instances: " + LatinKeyboard.getInstancesCreated());
+        frameStats.dump(fout, "  ");
+        fout.println("  Key feedback dropped: " + keyFeedback.getDropped());
     }
 
     /**
@@ -148,16 +508,16 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
     @Override public void onUpdateSelection(int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd, int candidatesStart, int candidatesEnd) {
         super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd, candidatesStart, candidatesEnd);
 
+        this.selStart = newSelStart;
+        this.selEnd = newSelEnd;
+        this.candidatesEnd = candidatesEnd;
+        // A streamed chunk has landed once the cursor stands after it
+        streamer.onSelectionChanged(newSelEnd);
+
         // If the current selection in the text view changes, we should
         // clear whatever candidate text we have.
-        if (stringBuilder.length() > 0 && (newSelStart != candidatesEnd || newSelEnd != candidatesEnd)) {
-            stringBuilder.setLength(0);
-            //updateCandidates();
-            InputConnection ic = getCurrentInputConnection();
-            if (ic != null) {
-                ic.finishComposingText();
-            }
-        }
+        engine.onSelectionChanged(newSelStart, newSelEnd, candidatesEnd);
+        updateCandidates();
     }
 
     /**
@@ -180,13 +540,13 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
             c = c & KeyCharacterMap.COMBINING_ACCENT_MASK;
         }
 
-        if (stringBuilder.length() > 0) {
-            char accent = stringBuilder.charAt(stringBuilder.length() -1 );
+        if (engine.isComposing()) {
+            char accent = engine.lastComposingChar();
             int composed = KeyEvent.getDeadChar(accent, c);
 
             if (composed != 0) {
                 c = composed;
-                stringBuilder.setLength(stringBuilder.length()-1);
+                engine.dropLastComposingChar();
             }
         }
 
@@ -199,6 +559,8 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
      * Use this to monitor key events being delivered to the application.
      */
     @Override public boolean onKeyDown(int keyCode, KeyEvent event) {
+        // Input goes after any text still being streamed
+        streamer.flush();
         switch (keyCode) {
             case KeyEvent.KEYCODE_BACK:
                 // The InputMethodService already takes care of the back key for us, to dismiss the input method if it is shown.
@@ -213,7 +575,7 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
             case KeyEvent.KEYCODE_DEL:
                 // Special handling of the delete key: if we currently are composing text for the user, we want to modify that instead
                 // of let the application to the delete itself.
-                if (stringBuilder.length() > 0) {
+                if (engine.isComposing()) {
                     onKey(Keyboard.KEYCODE_DELETE, null);
                     return true;
                 }
@@ -236,7 +598,7 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
         // If we want to do transformations on text being entered with a hard
         // keyboard, we need to process the up events to update the meta key state we are tracking.
         if (PROCESS_HARD_KEYS) {
-            if (predictionOn) {
+            if (engine.isPredictionOn()) {
                 metaState = MetaKeyKeyListener.handleKeyUp(metaState, keyCode, event);
             }
         }
@@ -244,79 +606,95 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
         return super.onKeyUp(keyCode, event);
     }
 
-    // Helper function to commit any text being composed in to the editor.
-    private void commitTyped(InputConnection inputConnection) {
-        if (stringBuilder.length() > 0) {
-            inputConnection.commitText(stringBuilder, stringBuilder.length());
-            stringBuilder.setLength(0);
+    /**
+     * Forwards the edits produced by the input engine to the current editor and keyboard view.
+     */
+    private class InputConnectionSink implements EditSink {
+
+        @Override public void beginBatchEdit() {
+            final InputConnection ic = getCurrentInputConnection();
+            if (ic != null) {
+                ipcCalls++;
+                ic.beginBatchEdit();
+            }
         }
-    }
 
-    // Helper to update the shift state of our keyboard based on the initial editor state
-    private void updateShiftKeyState(EditorInfo attr) {
-        if (attr != null && inputView != null && keyboardLetters == inputView.getKeyboard()) {
-            int caps = 0;
-            EditorInfo ei = getCurrentInputEditorInfo();
-            if (ei != null && ei.inputType != InputType.TYPE_NULL) {
-                caps = getCurrentInputConnection().getCursorCapsMode(attr.inputType);
+        @Override public void endBatchEdit() {
+            final InputConnection ic = getCurrentInputConnection();
+            if (ic != null) {
+                ipcCalls++;
+                ic.endBatchEdit();
             }
-            inputView.setShifted(capsLock || caps != 0);
         }
-    }
 
-    // Helper to determine if a given character code is alphabetic.
-    private boolean isAlphabet(int code) {
-        if (Character.isLetter(code)) {
-            return true;
+        @Override public void setComposingText(CharSequence text) {
+            final InputConnection ic = getCurrentInputConnection();
+            if (ic != null) {
+                ipcCalls++;
+                ic.setComposingText(text, 1);
+            }
         }
-        else {
-            return false;
+
+        @Override public void commitText(CharSequence text, int newCursorPosition) {
+            final InputConnection ic = getCurrentInputConnection();
+            if (ic != null) {
+                ipcCalls++;
+                ic.commitText(text, newCursorPosition);
+            }
+        }
+
+        @Override public void finishComposingText() {
+            final InputConnection ic = getCurrentInputConnection();
+            if (ic != null) {
+                ipcCalls++;
+                ic.finishComposingText();
+            }
+        }
+
+        @Override public void sendDelete() {
+            keyDownUp(KeyEvent.KEYCODE_DEL);
+        }
+
+        @Override public void sendEnter() {
+            keyDownUp(KeyEvent.KEYCODE_ENTER);
+        }
+
+        @Override public void sendDigit(int digit) {
+            keyDownUp(KeyEvent.KEYCODE_0 + digit);
+        }
+
+        @Override public void setShifted(boolean shifted) {
+            if (inputView != null) {
+                inputView.setShifted(shifted);
+            }
+        }
+
+        @Override public int getCursorCapsMode() {
+            final EditorInfo ei = getCurrentInputEditorInfo();
+            final InputConnection ic = getCurrentInputConnection();
+            if (ei == null || ic == null || ei.inputType == InputType.TYPE_NULL) {
+                return 0;
+            }
+            ipcCalls++;
+            return ic.getCursorCapsMode(ei.inputType);
         }
     }
 
     // Helper to send a key down / key up pair to the current editor.
     private void keyDownUp(int keyEventCode) {
-        getCurrentInputConnection().sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, keyEventCode));
-        getCurrentInputConnection().sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, keyEventCode));
-    }
-
-    // Helper to send a character to the editor as raw key events.
-    private void sendKey(int keyCode) {
-        switch (keyCode) {
-            case '\n':
-                keyDownUp(KeyEvent.KEYCODE_ENTER);
-                break;
-            default:
-                if (keyCode >= '0' && keyCode <= '9') {
-                    keyDownUp(keyCode - '0' + KeyEvent.KEYCODE_0);
-                }
-                else {
-                    getCurrentInputConnection().commitText(String.valueOf((char) keyCode), 1);
-                }
-                break;
+        final InputConnection ic = getCurrentInputConnection();
+        if (ic != null) {
+            ipcCalls += 2;
+            ic.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, keyEventCode));
+            ic.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, keyEventCode));
         }
     }
 
     // Implementation of Keyboard View Listener
     public void onKey(int primaryCode, int[] keyCodes) {
-        if (isWordSeparator(primaryCode)) {
-            // Handle separator
-            if (stringBuilder.length() > 0) {
-                commitTyped(getCurrentInputConnection());
-            }
-            sendKey(primaryCode);
-            updateShiftKeyState(getCurrentInputEditorInfo());
-        }
-        else if (primaryCode == Keyboard.KEYCODE_DELETE) {
-            handleBackspace();
-        }
-        else if (primaryCode == Keyboard.KEYCODE_SHIFT) {
-            handleShift();
-        }
         // Switching between keyboards
-        else if (primaryCode == LatinKeyboardView.KEYCODE_LANGUAGE_SWITCH) {
+        if (primaryCode == LatinKeyboardView.KEYCODE_LANGUAGE_SWITCH) {
             handleLanguageSwitch();
-            return;
         }
         else if (primaryCode == Keyboard.KEYCODE_MODE_CHANGE && inputView != null) {
             Keyboard current = inputView.getKeyboard();
@@ -329,76 +707,80 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
             }
         }
         else {
-            handleCharacter(primaryCode, keyCodes);
+            final long start = System.nanoTime();
+            streamer.flush();
+            engine.onKey(primaryCode, isInputViewShown());
+            updateCandidates();
+            if (sampleKeys) {
+                final long nanos = System.nanoTime() - start;
+                recordMetric(MetricsRing.KEY_LATENCY, keyKind(primaryCode), nanos);
+            }
         }
     }
 
-    public void onText(CharSequence text) {
-        InputConnection ic = getCurrentInputConnection();
-
-        if (ic == null) return;
-
-        ic.beginBatchEdit();
-
-        if (stringBuilder.length() > 0) {
-            commitTyped(ic);
+    // The kind of key recorded with its latency, the key itself is never stored
+    private int keyKind(int primaryCode) {
+        if (primaryCode == Keyboard.KEYCODE_DELETE) {
+            return MetricsRing.KEY_DELETE;
+        }
+        else if (engine.isWordSeparator(primaryCode)) {
+            return MetricsRing.KEY_SEPARATOR;
         }
-        ic.commitText(text, 0);
-        ic.endBatchEdit();
-        updateShiftKeyState(getCurrentInputEditorInfo());
+        else if (primaryCode > 0 && Character.isLetter(primaryCode)) {
+            return MetricsRing.KEY_LETTER;
+        }
+        return MetricsRing.KEY_OTHER;
     }
 
-    // Helper function to support Delete key
-    private void handleBackspace() {
-        final int length = stringBuilder.length();
-        if (length > 1) {
-            stringBuilder.delete(length - 1, length);
-            getCurrentInputConnection().setComposingText(stringBuilder, 1);
-        }
-        else if (length > 0) {
-            stringBuilder.setLength(0);
-            getCurrentInputConnection().commitText("", 0);
+    public void onText(CharSequence text) {
+        if (getCurrentInputConnection() == null) return;
+
+        if (streamer.shouldStream(text)) {
+            // Large text, from a shortcut expansion or a clipboard manager, would be one huge transaction
+            streamer.start(text, insertionPoint());
         }
         else {
-            keyDownUp(KeyEvent.KEYCODE_DEL);
+            streamer.flush();
+            // Cursor after the text, like the chunks of a streamed one
+            engine.onText(text, 1);
         }
-        updateShiftKeyState(getCurrentInputEditorInfo());
+        updateCandidates();
     }
 
-    // Helper function to support Shift key
-    private void handleShift() {
-        if (inputView == null) {
+    // Refresh the suggestion strip from the live composing text
+    private void updateCandidates() {
+        if (candidateView == null) {
             return;
         }
-
-        Keyboard currentKeyboard = inputView.getKeyboard();
-
-        if (keyboardLetters == currentKeyboard) {
-            // Alphabet keyboard
-            checkToggleCapsLock();
-            inputView.setShifted(capsLock || !inputView.isShifted());
+        if (engine.isComposing() && !suggestQuery.isEmpty()) {
+            suggestQuery.getCompletions(engine.getComposing(), suggestions);
+        }
+        else {
+            suggestions.clear();
         }
+        candidateView.setSuggestions(suggestions);
     }
 
-    // Helper function to support Letter characters
-    private void handleCharacter(int primaryCode, int[] keyCodes) {
-        if (isInputViewShown()) {
-            if (inputView.isShifted()) {
-                primaryCode = Character.toUpperCase(primaryCode);
-            }
-        }
-        if (isAlphabet(primaryCode) && predictionOn) {
-            stringBuilder.append((char) primaryCode);
-            getCurrentInputConnection().setComposingText(stringBuilder, 1);
-            updateShiftKeyState(getCurrentInputEditorInfo());
-        }
-        else {
-            getCurrentInputConnection().commitText(String.valueOf((char) primaryCode), 1);
+    // Where text committed now starts: after the composing word, which is committed first, else in
+    // place of the selection. Reports lag behind fast typing, a wrong guess only costs ack timeouts.
+    private int insertionPoint() {
+        if (engine.isComposing() && candidatesEnd >= 0) {
+            return candidatesEnd;
         }
+        return Math.min(selStart, selEnd);
+    }
+
+    /**
+     * Commit the suggestion the user picked from the candidate strip.
+     */
+    void pickSuggestion(CharSequence word) {
+        streamer.flush();
+        engine.pickSuggestion(word);
+        updateCandidates();
     }
 
     private void handleClose() {
-        commitTyped(getCurrentInputConnection());
+        engine.commitTyped();
         requestHideSelf(0);
         inputView.closing();
     }
@@ -420,31 +802,13 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
         inputMethodManager.switchToNextInputMethod(getToken(), false);
     }
 
-    private void checkToggleCapsLock() {
-        long now = System.currentTimeMillis();
-        if (lastShiftTime + 800 > now) {
-            capsLock = !capsLock;
-            lastShiftTime = 0;
-        }
-        else {
-            lastShiftTime = now;
-        }
-    }
-
-    // Return all available word separators
-    private String getWordSeparators() {
-        return wordSeparators;
-    }
-
-    public boolean isWordSeparator(int code) {
-        String separators = getWordSeparators();
-        return separators.contains(String.valueOf((char)code));
-    }
-
     public void swipeRight() {}
 
     public void swipeLeft() {
-        handleBackspace();
+        // Deletes after any text still being streamed
+        streamer.flush();
+        engine.onBackspace();
+        updateCandidates();
     }
 
     public void swipeDown() {
@@ -453,7 +817,22 @@ public class SoftKeyboard extends InputMethodService implements KeyboardView.OnK
 
     public void swipeUp() {}
 
-    public void onPress(int primaryCode) {}
+    // Only queues the feedback, it is played on the feedback thread
+    public void onPress(int primaryCode) {
+        switch (primaryCode) {
+            case Keyboard.KEYCODE_DELETE:
+                keyFeedback.onKeyPress(KeyFeedback.PRESS_DELETE);
+                break;
+            case ' ':
+                keyFeedback.onKeyPress(KeyFeedback.PRESS_SPACE);
+                break;
+            case '\n':
+                keyFeedback.onKeyPress(KeyFeedback.PRESS_RETURN);
+                break;
+            default:
+                keyFeedback.onKeyPress(KeyFeedback.PRESS_STANDARD);
+        }
+    }
 
     public void onRelease(int primaryCode) {}
 }
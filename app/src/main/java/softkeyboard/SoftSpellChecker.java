@@ -0,0 +1,219 @@
+package softkeyboard;
+
+import android.service.textservice.SpellCheckerService;
+import android.util.Log;
+import android.view.textservice.SentenceSuggestionsInfo;
+import android.view.textservice.SuggestionsInfo;
+import android.view.textservice.TextInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import engine.Candidates;
+import engine.Lexicon;
+import engine.SpellingCorrector;
+
+/**
+ * Spell checker for host apps, backed by the keyboard's lexicons. Lexicons come from the process wide
+ * {@link LexiconLoader}, so a spell check and the keyboard share one mapping of each dictionary.
+ * Batches of sentences, such as a whole document being checked, are split into runs of words that
+ * are checked in parallel on a small pool of worker threads.
+ */
+public class SoftSpellChecker extends SpellCheckerService {
+
+    static final String TAG = "SoftSpellChecker";
+    // Most edits between a misspelt word and its suggestions
+    static final int MAX_DISTANCE = 2;
+    static final int MAX_SUGGESTIONS = 5;
+    // Longest a request waits for its locale's lexicon to be opened
+    static final long LEXICON_WAIT_MILLIS = 1000;
+    // Fewer words than this are checked on the calling thread
+    static final int MIN_WORDS_PER_TASK = 64;
+    static final int WORKER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static ThreadPoolExecutor workers;
+
+    // Each worker thread checks with its own corrector and list, the lexicons are shared
+    private static final ThreadLocal<SpellingCorrector> correctors = new ThreadLocal<SpellingCorrector>() {
+        @Override protected SpellingCorrector initialValue() {
+            return new SpellingCorrector(MAX_DISTANCE);
+        }
+    };
+    private static final ThreadLocal<Candidates> corrections = new ThreadLocal<Candidates>() {
+        @Override protected Candidates initialValue() {
+            return new Candidates(MAX_SUGGESTIONS);
+        }
+    };
+
+    private static final String[] NO_WORDS = new String[0];
+
+    @Override public Session createSession() {
+        return new LexiconSession(LexiconLoader.getInstance(this));
+    }
+
+    private static synchronized ThreadPoolExecutor getWorkers() {
+        if (workers == null) {
+            workers = BackgroundThreads.newPool(TAG, WORKER_THREADS);
+        }
+        return workers;
+    }
+
+    private static class LexiconSession extends Session {
+
+        private final LexiconLoader loader;
+        private String locale;
+
+        LexiconSession(LexiconLoader loader) {
+            this.loader = loader;
+        }
+
+        @Override public void onCreate() {
+            locale = getLocale() != null ? getLocale() : SoftKeyboard.DEFAULT_LOCALE;
+            // Start opening the lexicon, unless the keyboard has already
+            loader.load(locale);
+        }
+
+        @Override public SuggestionsInfo onGetSuggestions(TextInfo textInfo, int suggestionsLimit) {
+            final Lexicon lexicon = loader.await(locale, LEXICON_WAIT_MILLIS);
+            return check(lexicon, textInfo.getText(), suggestionsLimit, textInfo.getCookie(), textInfo.getSequence());
+        }
+
+        @Override public SentenceSuggestionsInfo[] onGetSentenceSuggestionsMultiple(TextInfo[] textInfos, int suggestionsLimit) {
+            final Lexicon lexicon = loader.await(locale, LEXICON_WAIT_MILLIS);
+
+            // Word boundaries of every sentence, so the batch can be split evenly however it is made up
+            final List<int[]> words = new ArrayList<>();
+            final int[] firstWord = new int[textInfos.length + 1];
+            for (int t = 0; t < textInfos.length; t++) {
+                firstWord[t] = words.size();
+                findWords(textInfos[t].getText(), t, words);
+            }
+            firstWord[textInfos.length] = words.size();
+
+            final SuggestionsInfo[] results = new SuggestionsInfo[words.size()];
+            checkWords(lexicon, textInfos, words, suggestionsLimit, results);
+
+            final SentenceSuggestionsInfo[] sentences = new SentenceSuggestionsInfo[textInfos.length];
+            for (int t = 0; t < textInfos.length; t++) {
+                final int count = firstWord[t + 1] - firstWord[t];
+                final SuggestionsInfo[] infos = new SuggestionsInfo[count];
+                final int[] offsets = new int[count];
+                final int[] lengths = new int[count];
+                for (int w = 0; w < count; w++) {
+                    final int[] word = words.get(firstWord[t] + w);
+                    infos[w] = results[firstWord[t] + w];
+                    offsets[w] = word[1];
+                    lengths[w] = word[2] - word[1];
+                }
+                sentences[t] = new SentenceSuggestionsInfo(infos, offsets, lengths);
+            }
+            return sentences;
+        }
+    }
+
+    // Check the words, in runs of at least MIN_WORDS_PER_TASK spread over the worker threads
+    private static void checkWords(final Lexicon lexicon, final TextInfo[] textInfos, final List<int[]> words,
+            final int suggestionsLimit, final SuggestionsInfo[] results) {
+        final int tasks = Math.min(WORKER_THREADS, words.size() / MIN_WORDS_PER_TASK);
+        if (tasks <= 1) {
+            checkRange(lexicon, textInfos, words, 0, words.size(), suggestionsLimit, results);
+            return;
+        }
+
+        final List<Callable<Void>> runs = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++) {
+            final int from = (int) ((long) words.size() * i / tasks);
+            final int to = (int) ((long) words.size() * (i + 1) / tasks);
+            runs.add(new Callable<Void>() {
+                @Override public Void call() {
+                    checkRange(lexicon, textInfos, words, from, to, suggestionsLimit, results);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> run : getWorkers().invokeAll(runs)) {
+                run.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            Log.w(TAG, "Spell check failed", e.getCause());
+        }
+        // Words a failed or interrupted run did not get to are reported as unchecked
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] == null) {
+                final TextInfo textInfo = textInfos[words.get(i)[0]];
+                results[i] = new SuggestionsInfo(0, NO_WORDS, textInfo.getCookie(), textInfo.getSequence());
+            }
+        }
+    }
+
+    private static void checkRange(Lexicon lexicon, TextInfo[] textInfos, List<int[]> words, int from, int to,
+            int suggestionsLimit, SuggestionsInfo[] results) {
+        for (int i = from; i < to; i++) {
+            final int[] word = words.get(i);
+            final TextInfo textInfo = textInfos[word[0]];
+            results[i] = check(lexicon, textInfo.getText().substring(word[1], word[2]), suggestionsLimit,
+                    textInfo.getCookie(), textInfo.getSequence());
+        }
+    }
+
+    private static SuggestionsInfo check(Lexicon lexicon, String word, int suggestionsLimit, int cookie, int sequence) {
+        if (lexicon == null) {
+            // Without a lexicon nothing can be said about the word
+            return new SuggestionsInfo(0, NO_WORDS, cookie, sequence);
+        }
+        final SpellingCorrector corrector = correctors.get();
+        if (corrector.isKnown(lexicon, word)) {
+            return new SuggestionsInfo(SuggestionsInfo.RESULT_ATTR_IN_THE_DICTIONARY, NO_WORDS, cookie, sequence);
+        }
+        final Candidates found = corrections.get();
+        corrector.getCorrections(lexicon, word, found);
+        final String[] suggestions = new String[Math.min(found.size(), Math.max(0, suggestionsLimit))];
+        for (int i = 0; i < suggestions.length; i++) {
+            suggestions[i] = found.toString(i);
+        }
+        int attributes = SuggestionsInfo.RESULT_ATTR_LOOKS_LIKE_TYPO;
+        if (suggestions.length > 0) {
+            attributes |= SuggestionsInfo.RESULT_ATTR_HAS_RECOMMENDED_SUGGESTIONS;
+        }
+        return new SuggestionsInfo(attributes, suggestions, cookie, sequence);
+    }
+
+    /**
+     * Add the words of the given text as {text index, start, end}: runs of letters, with apostrophes
+     * allowed inside a word.
+     */
+    static void findWords(String text, int textIndex, List<int[]> out) {
+        final int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetter(text.codePointAt(i))) {
+                i += Character.charCount(text.codePointAt(i));
+            }
+            final int start = i;
+            while (i < length) {
+                final int c = text.codePointAt(i);
+                if (Character.isLetter(c)) {
+                    i += Character.charCount(c);
+                }
+                else if (c == '\'' && i + 1 < length && Character.isLetter(text.codePointAt(i + 1))) {
+                    i++;
+                }
+                else {
+                    break;
+                }
+            }
+            if (i > start) {
+                out.add(new int[] { textIndex, start, i });
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package softkeyboard;
+
+import android.os.Handler;
+
+import engine.TextChunker;
+
+/**
+ * Commits large text, such as an expanded shortcut or a pasted snippet, in chunks rather than in one
+ * InputConnection call, keeping each binder transaction small and leaving the editor's UI thread time
+ * to lay out between chunks.
+ *
+ * Each chunk is committed with the cursor after it, so the next one follows it. The next chunk is
+ * only sent once the editor has acknowledged the previous one by reporting, through
+ * onUpdateSelection, the cursor right after it, or after a timeout for editors that do not report
+ * it or when the insertion point was not known.
+ * Chunks cannot share one batch edit, editors hold selection updates back until the batch ends, but
+ * they are contiguous insertions at the cursor, which editors that coalesce adjacent typing into one
+ * undo step treat as a single insert.
+ *
+ * Only used from the main thread.
+ */
+class StreamingCommitter {
+
+    /**
+     * Receives the chunks, in order.
+     */
+    interface Target {
+        /**
+         * Commit the chunk at the cursor and leave the cursor after it.
+         */
+        void commitChunk(CharSequence chunk);
+    }
+
+    private final Target target;
+    private final int threshold;
+    private final int chunkLength;
+    private final long ackTimeoutMillis;
+    private final Handler handler = new Handler();
+
+    private CharSequence pending;
+    private int position;
+    // Where the editor's cursor should be once the chunks sent so far have landed
+    private int cursor;
+    private boolean awaitingAck;
+
+    // An editor that does not report selection changes must not stall the stream
+    private final Runnable ackTimeout = new Runnable() {
+        @Override public void run() {
+            onAcknowledged();
+        }
+    };
+
+    /**
+     * @param threshold text longer than this many chars is streamed
+     * @param chunkLength most chars committed at once
+     */
+    StreamingCommitter(Target target, int threshold, int chunkLength, long ackTimeoutMillis) {
+        this.target = target;
+        this.threshold = threshold;
+        this.chunkLength = chunkLength;
+        this.ackTimeoutMillis = ackTimeoutMillis;
+    }
+
+    boolean shouldStream(CharSequence text) {
+        return text.length() > threshold;
+    }
+
+    /**
+     * Start streaming the given text, after whatever is still pending from an earlier stream.
+     * @param insertAt offset in the editor where the text will start
+     */
+    void start(CharSequence text, int insertAt) {
+        if (pending != null) {
+            flush();
+            // The new text follows the rest of the old one
+            insertAt = cursor;
+        }
+        pending = text;
+        position = 0;
+        cursor = insertAt;
+        sendNext();
+    }
+
+    /**
+     * The editor reported its selection, which acknowledges the chunk in flight once the cursor
+     * stands right after it.
+     */
+    void onSelectionChanged(int newSelEnd) {
+        if (awaitingAck && newSelEnd == cursor) {
+            onAcknowledged();
+        }
+    }
+
+    /**
+     * Send the rest of the text right away, still chunk by chunk, so that new input lands after it.
+     */
+    void flush() {
+        handler.removeCallbacks(ackTimeout);
+        awaitingAck = false;
+        while (pending != null) {
+            sendChunk();
+        }
+    }
+
+    /**
+     * Drop the rest of the text, for when the editor it was meant for has gone.
+     */
+    void cancel() {
+        handler.removeCallbacks(ackTimeout);
+        awaitingAck = false;
+        pending = null;
+    }
+
+    private void onAcknowledged() {
+        handler.removeCallbacks(ackTimeout);
+        awaitingAck = false;
+        sendNext();
+    }
+
+    private void sendNext() {
+        if (pending == null) {
+            return;
+        }
+        sendChunk();
+        if (pending != null) {
+            awaitingAck = true;
+            handler.postDelayed(ackTimeout, ackTimeoutMillis);
+        }
+    }
+
+    private void sendChunk() {
+        final CharSequence text = pending;
+        final int end = TextChunker.chunkEnd(text, position, chunkLength);
+        final CharSequence chunk = text.subSequence(position, end);
+        position = end;
+        cursor += chunk.length();
+        if (end == text.length()) {
+            pending = null;
+        }
+        target.commitChunk(chunk);
+    }
+}
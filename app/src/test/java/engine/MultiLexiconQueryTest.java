@@ -0,0 +1,59 @@
+package engine;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.fail;
+
+/**
+ * Suggestions for capitalised prefixes, queried from the lexicons compiled by the build.
+ */
+public class MultiLexiconQueryTest {
+
+    private static final File LEXICONS = new File("build/generated/assets/lexicons/dictionaries");
+
+    private final MultiLexiconQuery query = new MultiLexiconQuery();
+    private final Candidates out = new Candidates(5);
+
+    @Before
+    public void setUp() throws IOException {
+        query.setLexicons(new Lexicon[] { open("en_US"), open("en_GB") }, new int[] { 100, 60 });
+    }
+
+    @Test
+    public void capitalisedPrefixSuggestsLowerCaseWords() {
+        query.getCompletions("It", out);
+        assertContains("It");
+    }
+
+    @Test
+    public void capitalisedWordAlsoSuggestsLowerCaseWords() {
+        // "I" is in the lexicon as typed, "in" and "it" only in lower case
+        query.getCompletions("I", out);
+        assertContains("I");
+        assertContains("In");
+        assertContains("It");
+    }
+
+    private void assertContains(String word) {
+        for (int i = 0; i < out.size(); i++) {
+            if (out.matches(i, word)) {
+                return;
+            }
+        }
+        final StringBuilder shown = new StringBuilder();
+        for (int i = 0; i < out.size(); i++) {
+            shown.append(' ').append(out.toString(i));
+        }
+        fail(word + " not suggested, got" + shown);
+    }
+
+    private static Lexicon open(String locale) throws IOException {
+        return Lexicon.wrap(ByteBuffer.wrap(Files.readAllBytes(new File(LEXICONS, locale + ".lex").toPath())));
+    }
+}
@@ -0,0 +1,352 @@
+package softkeyboard;
+
+import android.content.Context;
+import android.content.res.Configuration;
+import android.inputmethodservice.Keyboard;
+import android.os.Bundle;
+import android.os.IBinder;
+import android.text.InputType;
+import android.view.Display;
+import android.view.KeyEvent;
+import android.view.WindowManager;
+import android.view.inputmethod.CompletionInfo;
+import android.view.inputmethod.CorrectionInfo;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.ExtractedText;
+import android.view.inputmethod.ExtractedTextRequest;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputMethod;
+import android.view.inputmethod.InputMethodInfo;
+import android.view.inputmethod.InputMethodManager;
+import android.view.inputmethod.InputMethodSession;
+import android.view.inputmethod.InputMethodSubtype;
+
+import com.example.android.softkeyboard.BuildConfig;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.annotation.Implementation;
+import org.robolectric.annotation.Implements;
+import org.robolectric.shadows.ShadowDisplay;
+import org.robolectric.shadows.ShadowInputMethodManager;
+import org.robolectric.util.ServiceController;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Budgets of the input path, measured on the service itself: keys go through SoftKeyboard.onKey and
+ * onKeyDown, suggestion lookups and the candidate strip included, edits reach a counting
+ * InputConnection, and input sessions and configuration changes are driven through the framework's
+ * InputMethod and InputMethodSession interfaces so the service sees its callbacks in the real order.
+ * <ul>
+ * <li>bytes allocated per keystroke, from the JVM's per thread allocation counter</li>
+ * <li>InputConnection calls per keystroke and per onText, the edits and queries that cross to the editor</li>
+ * <li>bytes allocated per input field start / finish cycle</li>
+ * <li>keyboard layouts parsed per rotation</li>
+ * </ul>
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23, shadows = InputBudgetTest.ShadowInputMethods.class)
+public class InputBudgetTest {
+
+    // Average bytes allocated per keystroke, committing the stable prefix of an over long word is the only allocation
+    static final double MAX_BYTES_PER_KEY = 8;
+    // InputConnection calls for a single key, the worst case is committing the stable prefix of an
+    // over long word: batch begin / end, commit the prefix, set the composing suffix, read the caps mode
+    static final int MAX_CALLS_PER_KEY = 5;
+    static final double MAX_AVERAGE_CALLS_PER_KEY = 2.5;
+    // onText: batch begin / end, commit the word and the text, read the caps mode
+    static final int MAX_CALLS_PER_TEXT = 5;
+    // Input field start / finish cycles should not allocate at all
+    static final long MAX_BYTES_PER_INPUT_CYCLE = 0;
+    // A rotation parses each layout at most once
+    static final int MAX_KEYBOARDS_PER_ROTATION = 2;
+
+    private static final String WORD_LIST = "src/main/dictionaries/en_US.txt";
+    private static final String SEPARATORS = " .,;:!?\n()[]*&@{}/<>_+=|\"";
+    // Stands for the hardware delete key in a typing script
+    private static final int HARD_DELETE = -1000;
+    private static final int WARMUP_KEYS = 100000;
+    private static final int MEASURED_KEYS = 500000;
+    private static final long LEXICON_WAIT_MS = 10000;
+
+    /**
+     * Robolectric has no input method manager service: no subtype or other input method is enabled.
+     */
+    @Implements(InputMethodManager.class)
+    public static class ShadowInputMethods extends ShadowInputMethodManager {
+
+        @Implementation
+        public InputMethodSubtype getCurrentInputMethodSubtype() {
+            return null;
+        }
+
+        @Implementation
+        public List<InputMethodInfo> getEnabledInputMethodList() {
+            return Collections.emptyList();
+        }
+
+        @Implementation
+        public boolean shouldOfferSwitchingToNextInputMethod(IBinder imeToken) {
+            return false;
+        }
+    }
+
+    /**
+     * An editor that only counts the calls SoftKeyboard makes on it.
+     */
+    static class CountingConnection implements InputConnection {
+        long calls;
+
+        @Override public CharSequence getTextBeforeCursor(int n, int flags) { calls++; return ""; }
+        @Override public CharSequence getTextAfterCursor(int n, int flags) { calls++; return ""; }
+        @Override public CharSequence getSelectedText(int flags) { calls++; return null; }
+        @Override public int getCursorCapsMode(int reqModes) { calls++; return 0; }
+        @Override public ExtractedText getExtractedText(ExtractedTextRequest request, int flags) { calls++; return null; }
+        @Override public boolean deleteSurroundingText(int beforeLength, int afterLength) { calls++; return true; }
+        @Override public boolean setComposingText(CharSequence text, int newCursorPosition) { calls++; return true; }
+        @Override public boolean setComposingRegion(int start, int end) { calls++; return true; }
+        @Override public boolean finishComposingText() { calls++; return true; }
+        @Override public boolean commitText(CharSequence text, int newCursorPosition) { calls++; return true; }
+        @Override public boolean commitCompletion(CompletionInfo text) { calls++; return true; }
+        @Override public boolean commitCorrection(CorrectionInfo correctionInfo) { calls++; return true; }
+        @Override public boolean setSelection(int start, int end) { calls++; return true; }
+        @Override public boolean performEditorAction(int editorAction) { calls++; return true; }
+        @Override public boolean performContextMenuAction(int id) { calls++; return true; }
+        @Override public boolean beginBatchEdit() { calls++; return true; }
+        @Override public boolean endBatchEdit() { calls++; return true; }
+        @Override public boolean sendKeyEvent(KeyEvent event) { calls++; return true; }
+        @Override public boolean clearMetaKeyStates(int states) { calls++; return true; }
+        @Override public boolean reportFullscreenMode(boolean enabled) { calls++; return true; }
+        @Override public boolean performPrivateCommand(String action, Bundle data) { calls++; return true; }
+        @Override public boolean requestCursorUpdates(int cursorUpdateMode) { calls++; return true; }
+    }
+
+    private final CountingConnection connection = new CountingConnection();
+    private final EditorInfo field = new EditorInfo();
+    private final KeyEvent hardDelete = new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DEL);
+    private ServiceController<SoftKeyboard> controller;
+    private SoftKeyboard service;
+    private InputMethod inputMethod;
+    private InputMethodSession session;
+
+    @Before
+    public void setUp() {
+        field.inputType = InputType.TYPE_CLASS_TEXT;
+        field.initialSelStart = 0;
+        field.initialSelEnd = 0;
+        controller = Robolectric.buildService(SoftKeyboard.class).create();
+        service = controller.get();
+        inputMethod = service.onCreateInputMethodInterface();
+        session = service.onCreateInputMethodSessionInterface();
+        // Suggestions are part of every keystroke, measure with the active lexicon open
+        assertNotNull(LexiconLoader.getInstance(service).await(SoftKeyboard.DEFAULT_LOCALE, LEXICON_WAIT_MS));
+    }
+
+    @After
+    public void tearDown() {
+        controller.destroy();
+    }
+
+    @Test
+    public void keystrokesStayWithinBudget() throws IOException {
+        final int[] keys = typingScript(readWords(new File(WORD_LIST)), WARMUP_KEYS + MEASURED_KEYS);
+        inputMethod.startInput(connection, field);
+        showInputView();
+
+        for (int i = 0; i < WARMUP_KEYS; i++) {
+            typeKey(keys[i]);
+        }
+        final long callsBefore = connection.calls;
+        long maxCalls = 0;
+        final long bytesBefore = allocatedBytes();
+        for (int i = WARMUP_KEYS; i < keys.length; i++) {
+            final long before = connection.calls;
+            typeKey(keys[i]);
+            maxCalls = Math.max(maxCalls, connection.calls - before);
+        }
+        final long bytes = allocatedBytes() - bytesBefore;
+        final double callsPerKey = (double) (connection.calls - callsBefore) / MEASURED_KEYS;
+
+        assertTrue(maxCalls + " InputConnection calls for one key, budget is " + MAX_CALLS_PER_KEY,
+                maxCalls <= MAX_CALLS_PER_KEY);
+        assertTrue(callsPerKey + " InputConnection calls per key, budget is " + MAX_AVERAGE_CALLS_PER_KEY,
+                callsPerKey <= MAX_AVERAGE_CALLS_PER_KEY);
+        if (bytesBefore >= 0) {
+            final double bytesPerKey = (double) bytes / MEASURED_KEYS;
+            assertTrue(bytesPerKey + " bytes allocated per key, budget is " + MAX_BYTES_PER_KEY,
+                    bytesPerKey <= MAX_BYTES_PER_KEY);
+        }
+    }
+
+    @Test
+    public void textWhileComposingIsOneBatch() {
+        inputMethod.startInput(connection, field);
+        showInputView();
+        service.onKey('a', null);
+
+        final long before = connection.calls;
+        service.onText("snippet ");
+        final long calls = connection.calls - before;
+        assertTrue(calls + " InputConnection calls for onText, budget is " + MAX_CALLS_PER_TEXT, calls <= MAX_CALLS_PER_TEXT);
+    }
+
+    @Test
+    public void inputCyclesDoNotAllocate() {
+        assumeTrue(allocatedBytes() >= 0);
+        inputMethod.startInput(connection, field);
+        showInputView();
+        for (int i = 0; i < 1000; i++) {
+            inputCycle();
+        }
+        final long before = allocatedBytes();
+        for (int i = 0; i < 10000; i++) {
+            inputCycle();
+        }
+        final long bytesPerCycle = (allocatedBytes() - before) / 10000;
+        assertTrue(bytesPerCycle + " bytes allocated per input cycle, budget is " + MAX_BYTES_PER_INPUT_CYCLE,
+                bytesPerCycle <= MAX_BYTES_PER_INPUT_CYCLE);
+    }
+
+    @Test
+    public void rotationParsesEachLayoutOnce() {
+        inputMethod.startInput(connection, field);
+        showInputView();
+
+        for (int i = 0; i < 3; i++) {
+            final int before = LatinKeyboard.getInstancesCreated();
+            rotate();
+            final int created = LatinKeyboard.getInstancesCreated() - before;
+            assertTrue(created + " keyboards parsed for one rotation, budget is " + MAX_KEYBOARDS_PER_ROTATION,
+                    created <= MAX_KEYBOARDS_PER_ROTATION);
+        }
+    }
+
+    @Test
+    public void configurationChangeOfTheSameSizeParsesNoLayout() {
+        inputMethod.startInput(connection, field);
+        showInputView();
+
+        final int before = LatinKeyboard.getInstancesCreated();
+        service.onConfigurationChanged(new Configuration(service.getResources().getConfiguration()));
+        showInputView();
+        assertEquals(0, LatinKeyboard.getInstancesCreated() - before);
+    }
+
+    // What showWindow does once the input view is requested, there is no window to show in here
+    private void showInputView() {
+        service.onCreateInputView();
+        service.onCreateCandidatesView();
+        service.onStartInputView(field, false);
+    }
+
+    // Swap the display's sides and report the new orientation: the framework rebuilds its views and
+    // restarts the input, onInitializeInterface then onStartInput, before the input view is shown again
+    private void rotate() {
+        final Display display = ((WindowManager) service.getSystemService(Context.WINDOW_SERVICE)).getDefaultDisplay();
+        final ShadowDisplay shadow = Shadows.shadowOf(display);
+        final int width = display.getWidth();
+        shadow.setWidth(display.getHeight());
+        shadow.setHeight(width);
+
+        final Configuration config = new Configuration(service.getResources().getConfiguration());
+        config.orientation = config.orientation == Configuration.ORIENTATION_LANDSCAPE
+                ? Configuration.ORIENTATION_PORTRAIT : Configuration.ORIENTATION_LANDSCAPE;
+        service.onConfigurationChanged(config);
+        showInputView();
+    }
+
+    private void typeKey(int key) {
+        if (key == HARD_DELETE) {
+            service.onKeyDown(KeyEvent.KEYCODE_DEL, hardDelete);
+        }
+        else {
+            service.onKey(key, null);
+        }
+    }
+
+    private void inputCycle() {
+        inputMethod.startInput(connection, field);
+        service.onKey('a', null);
+        service.onUpdateSelection(0, 0, 1, 1, 0, 1);
+        session.finishInput();
+    }
+
+    // Words from the list separated by spaces and punctuation, with the odd typo, backspace and long token
+    private static int[] typingScript(List<String> words, int length) {
+        final Random random = new Random(42);
+        final int[] keys = new int[length];
+        int i = 0;
+        while (i < length) {
+            final String word = random.nextInt(50) == 0 ? longToken(random) : words.get(random.nextInt(words.size()));
+            for (int c = 0; c < word.length() && i < length; c++) {
+                keys[i++] = word.charAt(c);
+                if (random.nextInt(20) == 0 && i < length) {
+                    keys[i++] = random.nextBoolean() ? Keyboard.KEYCODE_DELETE : HARD_DELETE;
+                }
+            }
+            if (i < length) {
+                keys[i++] = random.nextInt(10) == 0 ? SEPARATORS.charAt(random.nextInt(SEPARATORS.length())) : ' ';
+            }
+        }
+        return keys;
+    }
+
+    private static String longToken(Random random) {
+        final StringBuilder token = new StringBuilder();
+        final int length = 60 + random.nextInt(100);
+        for (int i = 0; i < length; i++) {
+            token.append((char) ('a' + random.nextInt(26)));
+        }
+        return token.toString();
+    }
+
+    // The words of a word list, one per line ahead of its frequency
+    private static List<String> readWords(File file) throws IOException {
+        final List<String> words = new ArrayList<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    words.add(line.split("\\s+")[0]);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return words;
+    }
+
+    // Bytes allocated so far by this thread, -1 when the JVM cannot tell
+    private static long allocatedBytes() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,158 @@
+package engine;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Compiles a plain word list into the binary format read by {@link Lexicon}.
+ *
+ * The source list holds one word per line followed by whitespace and its frequency (1 - 255).
+ * Blank lines and lines starting with # are ignored, a missing frequency counts as 1.
+ */
+class LexiconCompiler {
+
+    private static class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        int frequency;
+        int maxFrequency;
+        int offset;
+
+        int size() {
+            return Lexicon.NODE_HEADER_SIZE + children.size() * Lexicon.CHILD_ENTRY_SIZE;
+        }
+    }
+
+    /**
+     * Read a word list, keeping the source order. A word listed twice keeps its highest frequency.
+     */
+    static Map<String, Integer> readWordList(File file) throws IOException {
+        final Map<String, Integer> words = new LinkedHashMap<>();
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                final String[] fields = line.split("\\s+");
+                int frequency = 1;
+                if (fields.length > 1) {
+                    try {
+                        frequency = Integer.parseInt(fields[1]);
+                    }
+                    catch (NumberFormatException e) {
+                        throw new IOException(file + ":" + lineNumber + ": bad frequency " + fields[1]);
+                    }
+                }
+                if (frequency < 1 || frequency > Lexicon.MAX_FREQUENCY) {
+                    throw new IOException(file + ":" + lineNumber + ": frequency out of range " + frequency);
+                }
+                final Integer previous = words.get(fields[0]);
+                if (previous == null || previous < frequency) {
+                    words.put(fields[0], frequency);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return words;
+    }
+
+    static byte[] compile(Map<String, Integer> words) {
+        final Node root = new Node();
+        int maxWordLength = 0;
+        for (Map.Entry<String, Integer> entry : words.entrySet()) {
+            final String word = entry.getKey();
+            Node node = root;
+            for (int i = 0; i < word.length(); i++) {
+                final char c = word.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            node.frequency = entry.getValue();
+            maxWordLength = Math.max(maxWordLength, word.length());
+        }
+
+        // Lay the nodes out depth first so a prefix and its completions sit close together in the file.
+        final List<Node> order = new ArrayList<>();
+        int bodyLength = layout(root, order, 0);
+        computeMaxFrequency(root);
+
+        final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        for (Node node : order) {
+            body.putChar((char) node.children.size());
+            body.put((byte) node.frequency);
+            body.put((byte) node.maxFrequency);
+            for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+                body.putChar(child.getKey());
+                body.putInt(child.getValue().offset);
+            }
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(body.array());
+
+        final ByteBuffer file = ByteBuffer.allocate(Lexicon.HEADER_SIZE + bodyLength);
+        file.putInt(Lexicon.MAGIC);
+        file.putInt(Lexicon.VERSION);
+        file.putInt(words.size());
+        file.putInt(order.size());
+        file.putInt(bodyLength);
+        file.putInt((int) crc.getValue());
+        file.putInt(root.offset);
+        file.putInt(maxWordLength);
+        file.put(body.array());
+        return file.array();
+    }
+
+    static void write(byte[] lexicon, File file) throws IOException {
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+        try {
+            out.write(lexicon);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    // Assign offsets in depth first order, returns the offset following the subtree
+    private static int layout(Node node, List<Node> order, int offset) {
+        node.offset = offset;
+        order.add(node);
+        offset += node.size();
+        for (Node child : node.children.values()) {
+            offset = layout(child, order, offset);
+        }
+        return offset;
+    }
+
+    private static int computeMaxFrequency(Node node) {
+        int max = node.frequency;
+        for (Node child : node.children.values()) {
+            max = Math.max(max, computeMaxFrequency(child));
+        }
+        node.maxFrequency = max;
+        return max;
+    }
+}
@@ -0,0 +1,85 @@
+package engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line entry point used by the build to turn the word lists into binary lexicons.
+ * <pre>
+ * LexiconTool compile &lt;source dir&gt; &lt;output dir&gt;   compile and verify every *.txt list
+ * LexiconTool verify &lt;word list&gt; &lt;lexicon&gt;        verify an existing lexicon
+ * </pre>
+ * Exits with a non zero status when a list cannot be compiled or a lexicon fails verification.
+ */
+public class LexiconTool {
+
+    static final String SOURCE_SUFFIX = ".txt";
+    static final String LEXICON_SUFFIX = ".lex";
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            usage();
+        }
+        boolean ok;
+        if ("compile".equals(args[0])) {
+            ok = compileAll(new File(args[1]), new File(args[2]));
+        }
+        else if ("verify".equals(args[0])) {
+            ok = verify(new File(args[1]), new File(args[2]));
+        }
+        else {
+            usage();
+            return;
+        }
+        if (!ok) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean compileAll(File sourceDir, File outputDir) throws IOException {
+        final File[] sources = sourceDir.listFiles();
+        if (sources == null) {
+            throw new IOException("Cannot list " + sourceDir);
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+
+        boolean ok = true;
+        for (File source : sources) {
+            final String name = source.getName();
+            if (!name.endsWith(SOURCE_SUFFIX)) {
+                continue;
+            }
+            final Map<String, Integer> words = LexiconCompiler.readWordList(source);
+            final byte[] compiled = LexiconCompiler.compile(words);
+            final File output = new File(outputDir, name.substring(0, name.length() - SOURCE_SUFFIX.length()) + LEXICON_SUFFIX);
+            LexiconCompiler.write(compiled, output);
+            System.out.println(source + " -> " + output + ": " + words.size() + " words, " + compiled.length + " bytes");
+            ok &= report(output, LexiconVerifier.verify(Lexicon.wrap(ByteBuffer.wrap(compiled)), words));
+        }
+        return ok;
+    }
+
+    private static boolean verify(File source, File lexiconFile) throws IOException {
+        final byte[] bytes = Files.readAllBytes(lexiconFile.toPath());
+        return report(lexiconFile, LexiconVerifier.verify(Lexicon.wrap(ByteBuffer.wrap(bytes)), LexiconCompiler.readWordList(source)));
+    }
+
+    private static boolean report(File lexicon, List<String> problems) {
+        for (String problem : problems) {
+            System.err.println(lexicon + ": " + problem);
+        }
+        return problems.isEmpty();
+    }
+
+    private static void usage() {
+        System.err.println("Usage: LexiconTool compile <source dir> <output dir>");
+        System.err.println("       LexiconTool verify <word list> <lexicon>");
+        System.exit(2);
+    }
+}
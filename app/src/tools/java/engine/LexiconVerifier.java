@@ -0,0 +1,69 @@
+package engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks a compiled lexicon against the word list it was built from: header counts, checksum,
+ * every source word found with its frequency, and no word in the trie that is not in the source.
+ */
+class LexiconVerifier {
+
+    /**
+     * @return the problems found, empty when the lexicon matches the source list
+     */
+    static List<String> verify(Lexicon lexicon, Map<String, Integer> words) {
+        final List<String> problems = new ArrayList<>();
+
+        if (!lexicon.verifyChecksum()) {
+            problems.add("Checksum mismatch");
+        }
+        if (lexicon.getWordCount() != words.size()) {
+            problems.add("Header lists " + lexicon.getWordCount() + " words, source has " + words.size());
+        }
+
+        for (Map.Entry<String, Integer> entry : words.entrySet()) {
+            final int frequency = lexicon.getFrequency(entry.getKey());
+            if (frequency != entry.getValue()) {
+                problems.add("Lookup of \"" + entry.getKey() + "\" returned " + frequency + ", expected " + entry.getValue());
+            }
+        }
+
+        final int[] nodes = new int[1];
+        final StringBuilder word = new StringBuilder();
+        walk(lexicon, lexicon.root(), word, words, problems, nodes);
+        if (nodes[0] != lexicon.getNodeCount()) {
+            problems.add("Header lists " + lexicon.getNodeCount() + " nodes, trie has " + nodes[0]);
+        }
+        return problems;
+    }
+
+    // Visit every node, reporting words that are not in the source and broken subtree frequencies
+    private static int walk(Lexicon lexicon, int node, StringBuilder word, Map<String, Integer> words,
+                            List<String> problems, int[] nodes) {
+        nodes[0]++;
+        int max = lexicon.frequency(node);
+        if (max > 0 && !words.containsKey(word.toString())) {
+            problems.add("Lexicon holds \"" + word + "\" which is not in the source");
+        }
+
+        final int count = lexicon.childCount(node);
+        char previous = 0;
+        for (int i = 0; i < count; i++) {
+            final char c = lexicon.childChar(node, i);
+            if (i > 0 && c <= previous) {
+                problems.add("Children of \"" + word + "\" are not sorted");
+            }
+            previous = c;
+            word.append(c);
+            max = Math.max(max, walk(lexicon, lexicon.childOffset(node, i), word, words, problems, nodes));
+            word.setLength(word.length() - 1);
+        }
+
+        if (lexicon.maxFrequency(node) != max) {
+            problems.add("Highest frequency below \"" + word + "\" is " + lexicon.maxFrequency(node) + ", expected " + max);
+        }
+        return max;
+    }
+}
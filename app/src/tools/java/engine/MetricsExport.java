@@ -0,0 +1,172 @@
+package engine;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Decodes a metrics ring pulled from a device into CSV and prints summary statistics per sample type.
+ * <pre>
+ * adb shell run-as com.example.android.softkeyboard cat files/metrics.ring &gt; metrics.ring
+ * MetricsExport metrics.ring [samples.csv]
+ * </pre>
+ * Without a CSV file name the samples are written to standard output, followed by the summary.
+ */
+public class MetricsExport {
+
+    private static class Sample {
+        long sequence;
+        long timestamp;
+        long value;
+        int type;
+        int tag;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: MetricsExport <ring file> [csv file]");
+            System.exit(2);
+        }
+        final List<Sample> samples = decode(ByteBuffer.wrap(Files.readAllBytes(new File(args[0]).toPath())));
+
+        final PrintWriter csv = args.length > 1
+                ? new PrintWriter(new OutputStreamWriter(new FileOutputStream(args[1]), Charset.forName("UTF-8")))
+                : new PrintWriter(System.out);
+        csv.println("sequence,timestamp_ms,type,tag,value");
+        for (Sample sample : samples) {
+            csv.println(sample.sequence + "," + sample.timestamp + "," + typeName(sample.type) + ","
+                    + tagName(sample.type, sample.tag) + "," + sample.value);
+        }
+        csv.flush();
+        if (args.length > 1) {
+            csv.close();
+        }
+
+        summarise(samples);
+    }
+
+    static List<Sample> decode(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < MetricsRing.HEADER_SIZE || buffer.getInt(0) != MetricsRing.MAGIC) {
+            throw new IOException("Not a metrics ring");
+        }
+        if (buffer.getInt(4) != MetricsRing.VERSION) {
+            throw new IOException("Unsupported metrics ring version " + buffer.getInt(4));
+        }
+        final int recordSize = buffer.getInt(8);
+        final int capacity = buffer.getInt(12);
+        if (recordSize != MetricsRing.RECORD_SIZE || MetricsRing.HEADER_SIZE + (long) capacity * recordSize > buffer.capacity()) {
+            throw new IOException("Corrupt metrics ring header");
+        }
+
+        final List<Sample> samples = new ArrayList<>();
+        for (int i = 0; i < capacity; i++) {
+            final int base = MetricsRing.HEADER_SIZE + i * recordSize;
+            final long sequence = buffer.getLong(base);
+            if (sequence == 0) {
+                continue;
+            }
+            final Sample sample = new Sample();
+            sample.sequence = sequence - 1;
+            sample.timestamp = buffer.getLong(base + 8);
+            sample.value = buffer.getLong(base + 16);
+            sample.type = buffer.getInt(base + 24);
+            sample.tag = buffer.getInt(base + 28);
+            samples.add(sample);
+        }
+        Collections.sort(samples, new Comparator<Sample>() {
+            @Override
+            public int compare(Sample a, Sample b) {
+                return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+            }
+        });
+        return samples;
+    }
+
+    // Count, mean and percentiles per type and tag
+    private static void summarise(List<Sample> samples) {
+        final Map<String, List<Long>> groups = new TreeMap<>();
+        for (Sample sample : samples) {
+            final String key = typeName(sample.type) + (sample.tag != 0 ? "/" + tagName(sample.type, sample.tag) : "");
+            List<Long> values = groups.get(key);
+            if (values == null) {
+                values = new ArrayList<>();
+                groups.put(key, values);
+            }
+            values.add(sample.value);
+        }
+
+        System.err.printf("%-36s %8s %12s %12s %12s %12s %12s %12s%n", "sample", "count", "min", "mean", "p50", "p90", "p99", "max");
+        for (Map.Entry<String, List<Long>> group : groups.entrySet()) {
+            final long[] values = new long[group.getValue().size()];
+            long sum = 0;
+            for (int i = 0; i < values.length; i++) {
+                values[i] = group.getValue().get(i);
+                sum += values[i];
+            }
+            Arrays.sort(values);
+            System.err.printf("%-36s %8d %12d %12d %12d %12d %12d %12d%n", group.getKey(), values.length,
+                    values[0], sum / values.length, percentile(values, 50), percentile(values, 90),
+                    percentile(values, 99), values[values.length - 1]);
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        final int index = (int) Math.ceil(percent / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static String typeName(int type) {
+        switch (type) {
+            case MetricsRing.KEY_LATENCY:
+                return "key_latency_ns";
+            case MetricsRing.STARTUP_SPAN:
+                return "startup_span_ns";
+            case MetricsRing.LAYOUT_REBUILD:
+                return "layout_rebuild_ns";
+            case MetricsRing.IPC_CALLS:
+                return "ipc_calls";
+            default:
+                return "type_" + type;
+        }
+    }
+
+    private static String tagName(int type, int tag) {
+        if (type == MetricsRing.STARTUP_SPAN) {
+            switch (tag) {
+                case MetricsRing.SPAN_CREATE:
+                    return "onCreate";
+                case MetricsRing.SPAN_CREATE_INPUT_VIEW:
+                    return "onCreateInputView";
+                case MetricsRing.SPAN_START_INPUT_VIEW:
+                    return "onStartInputView";
+                default:
+            }
+        }
+        else if (type == MetricsRing.KEY_LATENCY) {
+            switch (tag) {
+                case MetricsRing.KEY_LETTER:
+                    return "letter";
+                case MetricsRing.KEY_SEPARATOR:
+                    return "separator";
+                case MetricsRing.KEY_DELETE:
+                    return "delete";
+                case MetricsRing.KEY_OTHER:
+                    return "other";
+                default:
+            }
+        }
+        return String.valueOf(tag);
+    }
+}